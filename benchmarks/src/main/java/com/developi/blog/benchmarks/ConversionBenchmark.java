@@ -0,0 +1,99 @@
+package com.developi.blog.benchmarks;
+
+import com.developi.blog.BlogPost;
+import com.developi.blog.ConversionContext;
+import com.developi.blog.HtmlRewriter;
+import com.developi.blog.LinkIndex;
+import com.developi.blog.MarkDownConverter;
+import com.developi.blog.PostFormatter;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the steps of converting a single post, in the order they run in the export.
+ * Image downloads are stubbed, so this runs offline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConversionBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int paragraphs;
+
+    private HtmlRewriter rewriter;
+    private MarkDownConverter markDownConverter;
+    private ConversionContext conversionContext;
+
+    private String html;
+    private String preprocessedHtml;
+    private String markdown;
+    private BlogPost post;
+
+    @Setup
+    public void setup() {
+        rewriter = new HtmlRewriter(HtmlRewriter.DEFAULT_RULES);
+        markDownConverter = new MarkDownConverter();
+
+        // Images are not downloaded, assumed to be PNG files
+        conversionContext = ConversionContext.of(LinkIndex.of(SyntheticCorpus.fileNameMapping(), SyntheticCorpus.BASE_URL), (url, baseFileName) -> baseFileName + ".png",
+                                                 Path.of("posts"), Path.of("images"));
+
+        html = SyntheticCorpus.post(paragraphs);
+        preprocessedHtml = rewriter.rewrite(html);
+        markdown = markDownConverter.htmlToMarkdown(preprocessedHtml, conversionContext);
+
+        post = new BlogPost("0123456789ABCDEF0123456789ABCDEF", SyntheticCorpus.pageName(1), "A \"synthetic\" post", "synthetic-post", OffsetDateTime.of(2020, 1, 2, 3, 4, 5, 0, ZoneOffset.UTC), 0L,
+                            "Domino", List.of("xpages", "java", "openntf"), html);
+    }
+
+    @Benchmark
+    public String preprocessHtml() {
+        return rewriter.rewrite(html);
+    }
+
+    @Benchmark
+    public String htmlToMarkdown() {
+        return markDownConverter.htmlToMarkdown(preprocessedHtml, conversionContext);
+    }
+
+    @Benchmark
+    public String processMarkdown() {
+        return PostFormatter.processMarkdown(markdown);
+    }
+
+    @Benchmark
+    public String createFrontMatter() {
+        return PostFormatter.createFrontMatter(post, "Jane Doe");
+    }
+
+    /**
+     * All steps together, as in the converter stage of the export.
+     */
+    @Benchmark
+    public StringBuilder fullPost() {
+        String preprocessed = rewriter.rewrite(html);
+        StringBuilder content = new StringBuilder(preprocessed.length() + 1024);
+
+        PostFormatter.render(post, preprocessed, "Jane Doe", markDownConverter, conversionContext, content);
+
+        return content;
+    }
+}
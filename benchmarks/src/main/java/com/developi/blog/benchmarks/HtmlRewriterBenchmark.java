@@ -0,0 +1,57 @@
+package com.developi.blog.benchmarks;
+
+import com.developi.blog.HtmlRewriter;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link HtmlRewriter} and its precompiled patterns with the previous chain of {@code String.replaceAll} calls.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HtmlRewriterBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int paragraphs;
+
+    private String html;
+    private HtmlRewriter rewriter;
+
+    @Setup
+    public void setup() {
+        html = SyntheticCorpus.post(paragraphs);
+        rewriter = new HtmlRewriter(HtmlRewriter.DEFAULT_RULES);
+    }
+
+    @Benchmark
+    public String precompiledRewriter() {
+        return rewriter.rewrite(html);
+    }
+
+    @Benchmark
+    public String replaceAllChain() {
+        String content = html;
+
+        content = content.replaceAll("<(/?)u>", "");
+        content = content.replaceAll("<div\\s+class=\"well\">([\\s\\S]*?)</div>", "<blockquote>$1</blockquote>");
+        content = content.replaceAll("<strong>((.?<br />)+)", "$1<strong>");
+        content = content.replaceAll("</h([1-6])><br />", "</h$1>");
+        content = content.replaceAll("(<br />(\\s+)?){3,}", "<br /><br />");
+
+        return content;
+    }
+}
@@ -0,0 +1,61 @@
+package com.developi.blog.benchmarks;
+
+import com.developi.blog.LinkIndex;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares internal link lookups in the link index with the plain map it replaced. Run with -prof gc to see allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LinkIndexBenchmark {
+
+    private Map<String, String> hashMap;
+    private LinkIndex linkIndex;
+
+    private final String pageName = SyntheticCorpus.pageName(42);
+    private final String absoluteUrl = SyntheticCorpus.BASE_URL + SyntheticCorpus.pageName(42).toUpperCase() + "?OpenDocument";
+    private final String externalUrl = "https://www.example.org/";
+
+    @Setup
+    public void setup() {
+        hashMap = new HashMap<>(SyntheticCorpus.fileNameMapping());
+        linkIndex = LinkIndex.of(SyntheticCorpus.fileNameMapping(), SyntheticCorpus.BASE_URL);
+    }
+
+    @Benchmark
+    public String hashMapPageName() {
+        return hashMap.get(pageName);
+    }
+
+    @Benchmark
+    public String linkIndexPageName() {
+        return linkIndex.get(pageName);
+    }
+
+    @Benchmark
+    public String linkIndexAbsoluteUrl() {
+        return linkIndex.get(absoluteUrl);
+    }
+
+    @Benchmark
+    public String linkIndexExternalUrl() {
+        return linkIndex.get(externalUrl);
+    }
+}
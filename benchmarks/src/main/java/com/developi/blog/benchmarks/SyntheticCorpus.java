@@ -0,0 +1,88 @@
+package com.developi.blog.benchmarks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates HTML similar to the calculated HTML of Domino blog posts. Output is deterministic for a given size.
+ * <p>
+ * Posts contain the usual quirks: {@code <div class="well">} blocks, runs of {@code <br />}, bold text after line
+ * breaks, underlines, embedded iframes, {@code ?OpenElement} images and links to other posts.
+ */
+public final class SyntheticCorpus {
+
+    // Public URL of the blog the synthetic posts belong to
+    public static final String BASE_URL = "https://www.example.com/blog.nsf/dx/";
+
+    // Number of posts other posts can link to
+    public static final int LINKED_POSTS = 200;
+
+    private static final String[] WORDS = {
+        "domino", "notes", "xpages", "view", "document", "agent", "server", "replica", "design", "element",
+        "java", "database", "field", "formula", "lotusscript", "openntf", "template", "session", "the", "and"
+    };
+
+    private SyntheticCorpus() {
+    }
+
+    /**
+     * @param paragraphs number of content blocks in the post
+     * @return HTML content
+     */
+    public static String post(int paragraphs) {
+        Random random = new Random(paragraphs);
+        StringBuilder sb = new StringBuilder(paragraphs * 400);
+
+        for (int i = 0; i < paragraphs; i++) {
+            switch (i % 9) {
+                case 0 -> sb.append("<h2>").append(sentence(random, 4)).append("</h2><br />");
+                case 1 -> sb.append("<div class=\"well\">").append(sentence(random, 20)).append("<br />").append(sentence(random, 10)).append("</div>");
+                case 2 -> sb.append("<strong><br /><br />").append(sentence(random, 6)).append("</strong>");
+                case 3 -> sb.append("<u>").append(sentence(random, 5)).append("</u> ").append(sentence(random, 30));
+                case 4 -> sb.append(sentence(random, 40)).append("<br />\n<br />\n<br />\n<br />");
+                case 5 -> sb.append("<img src=\"").append(pageName(i)).append("/content/M").append(i % 7).append("?OpenElement\" alt=\"screenshot\" />");
+                case 6 -> sb.append("See <a href=\"").append(pageName(random.nextInt(LINKED_POSTS))).append("\">").append(sentence(random, 3)).append("</a> and <a href=\"https://www.example.org/\">this</a>.");
+                case 7 -> sb.append("<iframe width=\"560\" height=\"315\" src=\"https://www.youtube.com/embed/").append(i).append("\" frameborder=\"0\" allowfullscreen></iframe>");
+                default -> sb.append("<p>").append(sentence(random, 25)).append("</p>");
+            }
+
+            sb.append('\n');
+        }
+
+        sb.append("<$DXContinueReading$>\n<p>").append(sentence(random, 20)).append("</p>");
+
+        return sb.toString();
+    }
+
+    /**
+     * @return page name to file name mapping for posts that synthetic posts link to
+     */
+    public static Map<String, String> fileNameMapping() {
+        Map<String, String> mapping = new LinkedHashMap<>();
+
+        for (int i = 0; i < LINKED_POSTS; i++) {
+            String pageName = pageName(i);
+            mapping.put(pageName, String.format("20%02d-%02d-%s", i % 20, i % 12 + 1, pageName.replace(".htm", ".md")));
+        }
+
+        return mapping;
+    }
+
+    public static String pageName(int index) {
+        return "synthetic-post-about-domino-number-" + index + ".htm";
+    }
+
+    private static String sentence(Random random, int words) {
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,125 @@
+package com.developi.blog;
+
+import com.developi.jnx.utils.DominoRunner;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Exports several blogs in one run. The Domino process is initialised once for all of them, and each blog is exported
+ * on its own thread with its own Domino thread context and client.
+ */
+public class BatchExport {
+
+    /**
+     * Outcome of one blog.
+     *
+     * @param metrics timings and counters, null if the export could not start
+     * @param error   the reason the export stopped, null if it finished
+     */
+    public record Result(ExportTarget target, ExportMetrics metrics, Throwable error) {
+
+        public boolean failed() {
+            return error != null;
+        }
+    }
+
+    /**
+     * @param targets     blogs to export
+     * @param parallelism number of blogs exported at the same time
+     * @return result of each blog, in the order of targets
+     */
+    public static List<Result> run(List<ExportTarget> targets, int parallelism) {
+        Result[] results = new Result[targets.size()];
+
+        Runnable batch = () -> runAll(targets, Math.max(1, parallelism), results);
+
+        if (targets.stream().allMatch(ExportTarget::isOffline)) {
+            batch.run();
+        } else {
+            DominoRunner.runWithDominoProcess(batch, false);
+        }
+
+        List<Result> resultList = List.of(results);
+        printReport(resultList);
+
+        return resultList;
+    }
+
+    private static void runAll(List<ExportTarget> targets, int parallelism, Result[] results) {
+        Queue<Integer> queue = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < targets.size(); i++) {
+            queue.add(i);
+        }
+
+        List<Thread> workers = new ArrayList<>(parallelism);
+
+        for (int i = 0; i < Math.min(parallelism, targets.size()); i++) {
+            Thread worker = new Thread(() -> {
+                Integer index;
+                while ((index = queue.poll()) != null) {
+                    results[index] = export(targets.get(index));
+                }
+            }, "blog-export-" + i);
+
+            worker.start();
+            workers.add(worker);
+        }
+
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Exports one blog. Failures are kept in the result, so other blogs continue.
+     */
+    private static Result export(ExportTarget target) {
+        BlogConverter converter = null;
+
+        try {
+            converter = new BlogConverter(target);
+            BlogConverter blogConverter = converter;
+
+            if (target.isOffline()) {
+                blogConverter.run(new JsonLinesPostSource(Path.of(target.sourceFile()), blogConverter.getMetrics()));
+            } else {
+                DominoRunner.runInDominoThread(client -> blogConverter.run(blogConverter.dominoSource(client)));
+            }
+
+            return new Result(target, converter.getMetrics(), null);
+        } catch (Throwable t) {
+            System.err.println(target.name() + ": Export failed: " + t.getMessage());
+            t.printStackTrace();
+
+            return new Result(target, converter == null ? null : converter.getMetrics(), t);
+        }
+    }
+
+    private static void printReport(List<Result> results) {
+        System.out.println();
+        System.out.printf("%-30s %-8s %9s %9s %7s %7s %9s%n", "Blog", "Status", "exported", "unchanged", "failed", "images", "time (s)");
+
+        for (Result result : results) {
+            ExportMetrics metrics = result.metrics();
+
+            if (metrics == null) {
+                System.out.printf("%-30s %-8s %s%n", result.target().name(), "FAILED", result.error().getMessage());
+                continue;
+            }
+
+            System.out.printf("%-30s %-8s %9d %9d %7d %7d %9.1f%n",
+                              result.target().name(), result.failed() ? "FAILED" : "OK",
+                              metrics.get(ExportMetrics.Counter.POSTS_EXPORTED), metrics.get(ExportMetrics.Counter.POSTS_UNCHANGED),
+                              metrics.get(ExportMetrics.Counter.POSTS_FAILED), metrics.get(ExportMetrics.Counter.IMAGES_DOWNLOADED),
+                              metrics.elapsedSeconds());
+        }
+    }
+}
@@ -2,227 +2,545 @@ package com.developi.blog;
 
 import com.developi.jnx.utils.DominoRunner;
 import com.hcl.domino.DominoClient;
-import com.hcl.domino.commons.json.JsonUtil;
-import com.hcl.domino.data.Database;
-import com.hcl.domino.data.Document;
-import com.hcl.domino.data.DominoDateTime;
-import com.hcl.domino.richtext.RichTextRecordList;
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.net.http.HttpClient;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.temporal.ChronoField;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
-import org.apache.commons.io.IOUtils;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 
 public class BlogConverter {
 
     public static void main(String[] args) {
-        var blogConverter = new BlogConverter();
-        DominoRunner.runWithDominoClient(blogConverter::run, false);
+        if (DRY_RUN) {
+            ExportAnalysis.run(StringUtils.isNotEmpty(BATCH_FILE) ? ExportTarget.fromBatchFile(BATCH_FILE) : List.of(ExportTarget.fromEnvironment()));
+            return;
+        }
+
+        if (ArrayUtils.contains(args, "--merge-shards")) {
+            (StringUtils.isNotEmpty(BATCH_FILE) ? ExportTarget.fromBatchFile(BATCH_FILE) : List.of(ExportTarget.fromEnvironment()))
+                .forEach(BlogConverter::mergeShards);
+            return;
+        }
+
+        // Export only a part of the posts, e.g. --shard 2/4, while other processes export the rest
+        Shard shard = Shard.fromArguments(args);
+
+        if (StringUtils.isNotEmpty(BATCH_FILE)) {
+            List<ExportTarget> targets = ExportTarget.fromBatchFile(BATCH_FILE).stream().map(target -> target.withShard(shard)).toList();
+            List<BatchExport.Result> results = BatchExport.run(targets, BATCH_PARALLELISM);
+            long failed = results.stream().filter(BatchExport.Result::failed).count();
+
+            if (failed > 0) {
+                throw new RuntimeException(failed + " of " + results.size() + " blog(s) failed");
+            }
+            return;
+        }
+
+        ExportTarget target = ExportTarget.fromEnvironment().withShard(shard);
+        var blogConverter = new BlogConverter(target);
+
+        if (target.isOffline()) {
+            // Offline export, no Domino runtime needed
+            blogConverter.run(new JsonLinesPostSource(Path.of(target.sourceFile()), blogConverter.getMetrics()));
+        } else {
+            DominoRunner.runWithDominoClient(client -> blogConverter.run(blogConverter.dominoSource(client)), false);
+        }
     }
 
-    // Database name (Set via environment property DB_NAME: e.g. server!!blog.nsf)
-    public static String DB_NAME = System.getenv("DB_NAME");
+    // Set to true to only analyse the blog(s): convert in memory and write a JSON report, without writing posts or downloading images (Override via environment property DRY_RUN)
+    public static final boolean DRY_RUN = Boolean.parseBoolean(System.getenv("DRY_RUN"));
 
-    // Base URL for image downloads (Set via environment property BASE_URL: e.g. https://www.example.com/blog.nsf/dx/)
-    public static String BASE_URL = System.getenv("BASE_URL");
+    // JSON file with a list of blogs to export in one run, instead of a single one configured by environment properties (Set via environment property BATCH_FILE)
+    public static final String BATCH_FILE = System.getenv("BATCH_FILE");
 
-    // Target directory for exported files (Set via environment property BASE_DIR: e.g. /path/to/blog/project)
-    public static Path PATH_BASE = Path.of(StringUtils.defaultIfEmpty(System.getenv("TARGET_BASE_DIR"), ""));
+    // Number of blogs exported at the same time in batch mode (Override via environment property BATCH_PARALLELISM)
+    public static final int BATCH_PARALLELISM = intEnv("BATCH_PARALLELISM", 2, 1);
 
-    // Target directory for exported posts (Override via environment property POSTS_DIR)
-    public static Path PATH_POSTS = PATH_BASE.resolve(StringUtils.defaultIfEmpty(System.getenv("POSTS_DIR"), "posts/imported"));
+    // Number of threads reading notes from Domino (Override via environment property READER_THREADS)
+    public static final int READER_THREADS = intEnv("READER_THREADS", 1, 1);
 
-    // Target directory for exported images (Override via environment property IMG_DIR)
-    public static Path PATH_IMG = PATH_BASE.resolve(StringUtils.defaultIfEmpty(System.getenv("IMG_DIR"), "images/imported"));
+    // Number of view entries read at once while mapping posts (Override via environment property VIEW_BATCH_SIZE)
+    public static final int VIEW_BATCH_SIZE = intEnv("VIEW_BATCH_SIZE", 500, 1);
 
-    // Author name (Override via environment property AUTHOR_NAME)
-    public static final String AUTHOR_NAME = StringUtils.defaultIfEmpty(System.getenv("AUTHOR_NAME"), "Unknown");
+    // Content view columns to read page names, dates and modification times from (Override via environment properties
+    // VIEW_COLUMN_PAGE_NAME, VIEW_COLUMN_DATE and VIEW_COLUMN_MODIFIED). Without a modification column, it is compared
+    // when the note is opened, before its content is read.
+    public static final DominoPostSource.ViewColumns VIEW_COLUMNS = new DominoPostSource.ViewColumns(
+        StringUtils.defaultIfEmpty(System.getenv("VIEW_COLUMN_PAGE_NAME"), "res_title"),
+        StringUtils.defaultIfEmpty(System.getenv("VIEW_COLUMN_DATE"), "fulldatetime"),
+        StringUtils.defaultString(System.getenv("VIEW_COLUMN_MODIFIED"))
+    );
 
-    // Set to true to enable HTML file output (for debugging) (Override via environment property HTML_OUTPUT)
-    public boolean HTML_OUTPUT = Boolean.parseBoolean(System.getenv("HTML_OUTPUT"));
+    // Number of threads converting HTML to Markdown (Override via environment property PARALLELISM)
+    public static final int PARALLELISM = intEnv("PARALLELISM", Runtime.getRuntime().availableProcessors(), 1);
 
-    private final Map<String, Document> documentCache = new java.util.HashMap<>();
-    private final Map<String, String> fileNameMapping = new java.util.HashMap<>();
+    // Number of threads writing files (Override via environment property WRITER_THREADS)
+    public static final int WRITER_THREADS = intEnv("WRITER_THREADS", 2, 1);
 
-    // Markdown Converter
-    private final MarkDownConverter markDownConverter = new MarkDownConverter(this);
+    // Set to true to run writers and image downloads on virtual threads, on Java 21 or later (Override via environment property VIRTUAL_THREADS)
+    public static final boolean VIRTUAL_THREADS = Boolean.parseBoolean(System.getenv("VIRTUAL_THREADS"));
 
-    static {
-        Objects.requireNonNull(DB_NAME, "Environment variable DB_NAME is required. Set via environment property DB_NAME");
-        Objects.requireNonNull(BASE_URL, "Environment variable BASE_URL is required. Set via environment property BASE_URL");
-        Objects.requireNonNull(System.getenv("TARGET_BASE_DIR"), "Environment variable TARGET_BASE_DIR is required. Set via environment property TARGET_BASE_DIR");
-    }
+    // Threads for I/O-bound work, shared by all blogs of a batch
+    private static final IoThreads IO_THREADS = IoThreads.create(VIRTUAL_THREADS);
+
+    // Maximum number of image downloads in flight (Override via environment property IMG_CONCURRENCY)
+    public static final int IMG_CONCURRENCY = intEnv("IMG_CONCURRENCY", 8, 1);
+
+    // Maximum size of a downloaded image in bytes (Override via environment property IMG_MAX_BYTES)
+    public static final long IMG_MAX_BYTES = longEnv("IMG_MAX_BYTES", 64 * 1024 * 1024, 1);
+
+    // Copy embedded images out of the notes instead of downloading them, HTTP is only the fallback (Override via environment property IMG_FROM_NOTE)
+    public static final boolean IMG_FROM_NOTE = !"false".equalsIgnoreCase(System.getenv("IMG_FROM_NOTE"));
+
+    // Number of retries of an image download after transient errors, with exponential backoff (Override via environment property IMG_RETRIES)
+    public static final int IMG_RETRIES = intEnv("IMG_RETRIES", 3, 0);
+
+    // Set to true to optimise saved images: cap the width, recompress, strip metadata and write variants (Override via environment property IMG_OPTIMIZE)
+    public static final boolean IMG_OPTIMIZE = Boolean.parseBoolean(System.getenv("IMG_OPTIMIZE"));
+
+    // Maximum width of optimised images in pixels (Override via environment property IMG_MAX_WIDTH)
+    public static final int IMG_MAX_WIDTH = intEnv("IMG_MAX_WIDTH", 1600, 1);
+
+    // Comma separated widths of additional image variants, e.g. 480,960 (Override via environment property IMG_VARIANT_WIDTHS)
+    public static final List<Integer> IMG_VARIANT_WIDTHS = intListEnv("IMG_VARIANT_WIDTHS");
+
+    // JPEG quality of optimised images in percent (Override via environment property IMG_JPEG_QUALITY)
+    public static final int IMG_JPEG_QUALITY = intEnv("IMG_JPEG_QUALITY", 85, 1, 100);
+
+    // Number of threads optimising images, CPU-bound (Override via environment property IMG_OPTIMIZE_THREADS)
+    public static final int IMG_OPTIMIZE_THREADS = intEnv("IMG_OPTIMIZE_THREADS", Runtime.getRuntime().availableProcessors(), 1);
+
+    // Threads optimising images, shared by all blogs of a batch
+    private static final ExecutorService IMG_OPTIMIZE_POOL = IMG_OPTIMIZE ? ImageOptimizer.newPool(IMG_OPTIMIZE_THREADS) : null;
+
+    // Number of posts waiting between pipeline stages (Override via environment property QUEUE_CAPACITY)
+    public static final int QUEUE_CAPACITY = intEnv("QUEUE_CAPACITY", 16, 1);
+
+    // Blog to export: source, base URL, target directories and author
+    private final ExportTarget target;
+
+    // Page name to file name of all posts, built after the mapping pass. Only to resolve links, it normalises page names.
+    private LinkIndex linkIndex;
+
+    // UNID to output file name of the posts to export, exactly as mapped in the first pass
+    private final Map<String, String> outputFileNames = new HashMap<>();
+
+    // Timings and counters of this run
+    private final ExportMetrics metrics = new ExportMetrics();
 
-    public BlogConverter() {
-        System.out.println("Database: " + DB_NAME);
-        System.out.println("Base URL: " + BASE_URL);
-        System.out.println("Target Base directory: " + PATH_BASE.toString());
-        System.out.println("Target Post directory: " + PATH_POSTS.toString());
-        System.out.println("Target Image directory: " + PATH_IMG.toString());
-        System.out.println("Author name: " + AUTHOR_NAME);
-        System.out.println("HTML output: " + HTML_OUTPUT);
+    // Exported posts from previous runs
+    private final ExportManifest manifest;
+
+    // HTML cleanups before conversion. Site-specific rules can be added in a JSON file (Set via environment property HTML_RULES)
+    private final HtmlRewriter htmlRewriter = HtmlRewriter.fromConfiguration(System.getenv("HTML_RULES"));
+
+    // Writes posts atomically, synced to disk at the end of the run
+    private final OutputWriter outputWriter = new OutputWriter();
+
+    // Image downloads run in the background
+    private final ImageDownloader imageDownloader;
+
+    // Markdown Converter, shared by converter threads
+    private final MarkDownConverter markDownConverter = new MarkDownConverter();
+
+    // Links and images of this blog, built after the mapping pass
+    private ConversionContext conversionContext;
+
+    public BlogConverter(ExportTarget target) {
+        this.target = target;
+
+        System.out.println("Blog: " + target.name());
+        System.out.println(target.isOffline() ? "Source file: " + target.sourceFile() : "Database: " + target.dbName());
+        System.out.println("Base URL: " + target.baseUrl());
+        System.out.println("Target Post directory: " + target.postsDir());
+        System.out.println("Target Image directory: " + target.imgDir());
+        System.out.println("Author name: " + target.authorName());
+        System.out.println("HTML output: " + target.htmlOutput());
+        if (!target.shard().isAll()) {
+            System.out.println("Shard: " + target.shard());
+        }
+        System.out.println("Threads (reader/converter/writer): " + READER_THREADS + "/" + PARALLELISM + "/" + writerThreads()
+                               + (IO_THREADS.isVirtual() ? " (virtual writers)" : ""));
+        if (IMG_OPTIMIZE) {
+            System.out.println("Image optimisation: max width " + IMG_MAX_WIDTH + ", variants " + IMG_VARIANT_WIDTHS + ", JPEG quality " + IMG_JPEG_QUALITY
+                                   + ", " + IMG_OPTIMIZE_THREADS + " threads");
+        }
 
         // Ensure directories exist
         try {
-            if (!Files.exists(PATH_POSTS)) {
-                    Files.createDirectories(PATH_POSTS);
+            if (!Files.exists(target.postsDir())) {
+                    Files.createDirectories(target.postsDir());
             }
-            if (!Files.exists(PATH_IMG)) {
-                    Files.createDirectories(PATH_IMG);
+            if (!Files.exists(target.imgDir())) {
+                    Files.createDirectories(target.imgDir());
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
 
+        manifest = ExportManifest.load(target.postsDir(), target.shard());
+        ImageOptimizer imageOptimizer = IMG_OPTIMIZE
+            ? new ImageOptimizer(target.imgDir(), target.shard(), IMG_MAX_WIDTH, IMG_VARIANT_WIDTHS, IMG_JPEG_QUALITY / 100f, IMG_OPTIMIZE_POOL, metrics)
+            : null;
+        imageDownloader = new ImageDownloader(newHttpClient(), target.baseUrl(), target.imgDir(), ImageCache.load(target.imgDir(), target.shard()),
+                                              IMG_CONCURRENCY, IMG_MAX_BYTES, IMG_RETRIES,
+                                              imageOptimizer, metrics);
     }
 
-    public void run(DominoClient client) {
+    /**
+     * @param client Domino client of the current thread
+     * @return source reading the posts of this blog from its database
+     */
+    public PostSource dominoSource(DominoClient client) {
+        NoteImageExtractor imageExtractor = IMG_FROM_NOTE ? new NoteImageExtractor(target.imgDir(), IMG_MAX_BYTES, metrics) : null;
 
-        Database db = client.openDatabase(DB_NAME);
-        db.openCollection("vContent2")
-          .orElseThrow()
-          .forEachDocument(0, Integer.MAX_VALUE, (doc, loop) -> {
-              String pageName = doc.getAsText("res_title", ' ');
+        return new DominoPostSource(client, target.dbName(), READER_THREADS, VIEW_BATCH_SIZE, VIEW_COLUMNS, imageExtractor, metrics);
+    }
 
-              DominoDateTime dateCreated = doc.get("fulldatetime", DominoDateTime.class, doc.getCreated());
-              String datePrefix = String.format("%d-%02d", dateCreated.get(ChronoField.YEAR), dateCreated.get(ChronoField.MONTH_OF_YEAR));
+    public void run(PostSource source) {
 
-              String fileName = datePrefix + "-" + pageName.replace(".htm", ".md");
+        Map<String, String> fileNameMapping = new HashMap<>();
+        Set<String> existingUnids = new HashSet<>();
+        List<PostSource.PostSummary> shardPosts = new ArrayList<>();
+        int[] otherShards = {0};
+        long[] lastNanos = {System.nanoTime()};
 
-              System.out.println(loop.getIndex() + "." + pageName + ": Caching...");
+        // Pass 1: Only summary data to build the file name mapping.
+        source.forEachSummary(summary -> {
+            metrics.record(ExportMetrics.Stage.VIEW_ITERATION, null, System.nanoTime() - lastNanos[0]);
 
-              fileNameMapping.put(pageName, fileName);
-              documentCache.put(pageName, doc);
-          });
+            fileNameMapping.put(summary.pageName(), outputFileName(summary));
+            existingUnids.add(summary.unid());
 
-        documentCache.forEach(this::export);
+            if (target.shard().contains(summary.unid())) {
+                shardPosts.add(summary);
+            } else {
+                // Mapped, so links to it resolve, but exported by another shard
+                otherShards[0]++;
+            }
+
+            lastNanos[0] = System.nanoTime();
+        });
+
+        // The mapping is only needed as a compact index from now on
+        linkIndex = LinkIndex.of(fileNameMapping, target.baseUrl());
+        conversionContext = ConversionContext.of(linkIndex, imageDownloader, target.postsDir(), target.imgDir());
+
+        // Posts are compared with the manifest once all links resolve, a post is exported again when a linked post changed
+        List<PostSource.PostSummary> toExport = new ArrayList<>();
+        int unchanged = 0;
+
+        for (PostSource.PostSummary summary : shardPosts) {
+            if (summary.isLastModifiedKnown() && manifest.isUpToDate(summary.unid(), summary.lastModified(), target.postsDir(), linkIndex)) {
+                // Skip documents not modified since the last export
+                unchanged++;
+                metrics.increment(ExportMetrics.Counter.POSTS_UNCHANGED);
+            } else {
+                System.out.println((toExport.size() + unchanged) + "." + summary.pageName() + ": Mapping...");
+                toExport.add(summary);
+                outputFileNames.put(summary.unid(), outputFileName(summary));
+            }
+        }
 
+        System.out.println("Posts to export: " + toExport.size() + ", unchanged: " + unchanged
+                               + (target.shard().isAll() ? "" : ", in other shards: " + otherShards[0]));
+
+        removeDeletedPosts(existingUnids);
+
+        // Pass 2: Load each post, export and let it go. Reading, conversion and writing run in parallel.
+        new ExportPipeline(this, PARALLELISM, writerThreads(), QUEUE_CAPACITY, IO_THREADS, metrics).run(source, toExport);
+
+        int failedImages = imageDownloader.awaitAll();
+        if (failedImages > 0) {
+            System.err.println(failedImages + " image(s) could not be downloaded.");
+        }
+
+        // Flush all written files to disk at once, before the manifest refers to them
+        long syncStart = System.nanoTime();
+        int synced = outputWriter.sync();
+        metrics.record(ExportMetrics.Stage.SYNC_OUTPUT, null, System.nanoTime() - syncStart);
+        System.out.println(synced + " file(s) synced to disk.");
+
+        manifest.save();
+
+        metrics.finish();
+
+        // Keep the summary together when several blogs are exported at the same time
+        synchronized (System.out) {
+            System.out.println();
+            System.out.println("Blog: " + target.name());
+            metrics.printSummary(System.out);
+        }
+        metrics.writeReport(target.metricsFile());
+    }
+
+    public ExportTarget getTarget() {
+        return target;
     }
 
-    public Map<String, String> getFileNameMapping() {
-        return fileNameMapping;
+    public ExportMetrics getMetrics() {
+        return metrics;
     }
 
-    private void export(String pageName, Document doc) {
-        String slug = pageName.endsWith(".htm") ? pageName.substring(0, pageName.length() - 4) : pageName;
-        File targetFile = PATH_POSTS.resolve(fileNameMapping.get(pageName)).toFile();
+    public LinkIndex getLinkIndex() {
+        return linkIndex;
+    }
 
-        if (targetFile.exists()) {
-            if (!targetFile.delete()) {
-                System.err.println("Error deleting existing file");
-            }
+    /**
+     * Checks the modification time of a post before it's loaded, if the source didn't know it in the first pass.
+     *
+     * @return false if the post is not modified since the last export
+     */
+    boolean needsExport(String unid, long lastModified) {
+        if (manifest.isUpToDate(unid, lastModified, target.postsDir(), linkIndex)) {
+            metrics.increment(ExportMetrics.Counter.POSTS_UNCHANGED);
+            return false;
         }
 
-        String htmlContent = preprocessHtml(extractPostHtml(doc));
-        String mdContent = processMarkdown(markDownConverter.htmlToMarkdown(htmlContent));
-        String frontMatter = createFrontMatter(doc);
+        return true;
+    }
 
-        try (var writer = new FileWriter(targetFile)) {
-            IOUtils.write(frontMatter + mdContent, writer);
-        } catch (Exception e) {
-            System.err.println("Error writing file: " + e.getMessage());
-        }
+    /**
+     * Converts the post into Markdown. No Domino access here.
+     */
+    ExportPipeline.RenderedPost render(BlogPost post) {
+        String htmlContent = metrics.time(ExportMetrics.Stage.PREPROCESS_HTML, post.pageName(), () -> preprocessHtml(post.html()));
 
-        if (HTML_OUTPUT) {
-            try (var writer = new FileWriter(PATH_POSTS.resolve(slug + ".html").toFile())) {
-                IOUtils.write(htmlContent, writer);
-            } catch (Exception e) {
-                System.err.println("Error writing file: " + e.getMessage());
+        // The front matter and the cleaned Markdown go into one buffer, which is written as is
+        StringBuilder content = new StringBuilder(htmlContent.length() + 1024);
+
+        // Images copied out of the note are stored instead of downloaded
+        ConversionContext.ImageSink imageSink = post.embeddedImages().isEmpty() ? conversionContext.imageSink()
+            : (url, baseFileName) -> imageDownloader.request(url, baseFileName, post.embeddedImage(url));
+
+        // Links to other posts go into the manifest, to notice when they resolve differently
+        Set<String> links = new TreeSet<>();
+        ConversionContext context = new ConversionContext(linkIndex, imageSink, conversionContext.imageUrlPrefix(), (url, fileName) -> {
+            if (fileName != null || linkIndex.isBlogLink(url)) {
+                links.add(url);
             }
+        });
+
+        long start = System.nanoTime();
+        try {
+            PostFormatter.render(post, htmlContent, target.authorName(), markDownConverter, context, content);
+        } finally {
+            // Copies which were not stored, e.g. referenced twice or removed by the HTML rules
+            post.deleteEmbeddedImages();
         }
+        metrics.record(ExportMetrics.Stage.HTML_TO_MARKDOWN, post.pageName(), System.nanoTime() - start);
+
+        return new ExportPipeline.RenderedPost(post, content, htmlContent, List.copyOf(links));
     }
 
-    private String preprocessHtml(String content) {
-        // Remove <u>. Not supported by Markdown
-        content = content.replaceAll("<(/?)u>", "");
+    void write(ExportPipeline.RenderedPost rendered) {
+        BlogPost post = rendered.post();
 
-        // Convert <div.well> to <blockquote>
-        content = content.replaceAll(
-            "<div\\s+class=\"well\">([\\s\\S]*?)</div>",
-            "<blockquote>$1</blockquote>"
-        );
+        // Images are downloaded in the background. Wait for this post's images to learn their final names.
+        // Failed images are linked to their original URL, the post is written anyway.
+        List<String> images = new ArrayList<>();
+        StringBuilder markdown = rendered.markdown();
+        long waitStart = System.nanoTime();
+        int failedImages = imageDownloader.resolvePlaceholders(markdown, images);
+        metrics.record(ExportMetrics.Stage.IMAGE_WAIT, post.pageName(), System.nanoTime() - waitStart);
 
-        // This is an issue with the blog posts. Bold lines stick to the previous line.
-        content = content.replaceAll(
-            "<strong>((.?<br />)+)",
-            "$1<strong>"
-        );
+        String contentHash = Hashing.sha256Hex(markdown);
 
-        content = content.replaceAll(
-            "</h([1-6])><br />",
-            "</h$1>"
-        );
+        String fileName = outputFileNames.get(post.unid());
+        Path targetFile = target.postsDir().resolve(fileName);
+        Optional<ExportManifest.Entry> previous = manifest.get(post.unid());
 
-        // Multiple linebreaks to two.
-        content = content.replaceAll(
-            "(<br />(\\s+)?){3,}",
-            "<br /><br />"
-        );
+        if (isSameContent(targetFile, previous, contentHash)) {
+            System.out.println(post.pageName() + ": Unchanged content");
+        } else {
+            long start = System.nanoTime();
 
-        return content;
-    }
+            try {
+                outputWriter.write(targetFile, markdown);
+            } catch (IOException e) {
+                System.err.println("Error writing file: " + e.getMessage());
+                metrics.fail(ExportMetrics.Counter.POSTS_FAILED, post.pageName(), e);
+                return;
+            }
+
+            metrics.record(ExportMetrics.Stage.WRITE_FILE, post.pageName(), System.nanoTime() - start);
+        }
 
-    private String processMarkdown(String s) {
-        StringBuilder sb = new StringBuilder();
+        // Title or date might be changed, remove the old file once the new one is in place.
+        previous.filter(entry -> !entry.fileName().equals(fileName))
+                .ifPresent(entry -> deleteQuietly(target.postsDir().resolve(entry.fileName())));
 
-        String[] lines = s.split("\n");
+        metrics.increment(ExportMetrics.Counter.POSTS_EXPORTED);
 
-        for (String string : lines) {
-            String line = string.trim();
+        // Without a link hash, the post is exported again on the next run, which retries the failed images
+        String linkHash = failedImages > 0 ? null : ExportManifest.linkHash(rendered.links(), linkIndex);
+        manifest.put(new ExportManifest.Entry(post.unid(), post.pageName(), post.lastModified(), contentHash, fileName, images,
+                                              rendered.links(), linkHash));
 
-            if (line.contains("\\<$DXContinueReading$\\>")) {
-                line = line.replace("\\<$DXContinueReading$\\>", "<!-- more -->");
+        if (target.htmlOutput()) {
+            try {
+                outputWriter.write(target.postsDir().resolve(post.slug() + ".html"), rendered.html());
+            } catch (IOException e) {
+                System.err.println("Error writing file: " + e.getMessage());
             }
+        }
+    }
 
-            sb.append(line).append("\n");
+    /**
+     * Compares with the hash in the manifest. Without a manifest entry (e.g. the manifest is lost), compares with the
+     * existing file, so a full rebuild doesn't rewrite unchanged files.
+     */
+    private static boolean isSameContent(Path targetFile, Optional<ExportManifest.Entry> previous, String contentHash) {
+        if (!Files.exists(targetFile)) {
+            return false;
         }
 
-        return sb.toString();
+        if (previous.isPresent()) {
+            return previous.get().contentHash().equals(contentHash);
+        }
+
+        try {
+            return Hashing.sha256Hex(Files.readAllBytes(targetFile)).equals(contentHash);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Merges the manifests and image indexes of a sharded export into the regular files. Run it when all shards are
+     * done. The shard files are kept for the next sharded run.
+     */
+    public static void mergeShards(ExportTarget target) {
+        int manifests = ExportManifest.mergeShards(target.postsDir());
+        int imageCaches = ImageCache.mergeShards(target.imgDir());
+        int optimizerIndexes = ImageOptimizer.mergeShards(target.imgDir());
+
+        System.out.println(target.name() + ": merged " + manifests + " shard manifest(s), " + imageCaches + " image cache(s) and "
+                               + optimizerIndexes + " image optimisation index(es).");
     }
 
-    private String createFrontMatter(Document doc) {
-        StringBuilder sb = new StringBuilder();
+    /**
+     * Removes outputs of documents that are exported before but don't exist anymore.
+     * Images are removed only if no other post refers to them. A shard doesn't know the images of other shards, so it
+     * leaves images in place.
+     */
+    private void removeDeletedPosts(Set<String> existingUnids) {
+        for (String unid : manifest.unids()) {
+            if (existingUnids.contains(unid)) {
+                continue;
+            }
+
+            manifest.remove(unid).ifPresent(entry -> {
+                System.out.println(entry.pageName() + ": Removed from the database, deleting output.");
+
+                deleteQuietly(target.postsDir().resolve(entry.fileName()));
+                deleteQuietly(target.postsDir().resolve(StringUtils.removeEnd(entry.pageName(), ".htm") + ".html"));
 
-        DominoDateTime dateCreated = doc.get("fulldatetime", DominoDateTime.class, doc.getCreated());
-        String dateFormatted = JsonUtil.toIsoString(dateCreated);
-        String title = doc.getAsText("Subject", ' ');
-        String slug = doc.getAsText("res_title", ' ');
-        if (slug.endsWith(".htm")) {
-            slug = slug.substring(0, slug.length() - 4);
+                if (!target.shard().isAll()) {
+                    return;
+                }
+
+                entry.images()
+                     .stream()
+                     .filter(image -> !manifest.isImageReferenced(image))
+                     .forEach(image -> deleteQuietly(target.imgDir().resolve(image)));
+            });
         }
-        List<String> tags = doc.getAsList("CustomTags", String.class, List.of());
-        String category = doc.getAsText("CustomCategory", ' ');
+    }
 
-        sb.append("---\n")
-          .append("authors:\n").append("  - "). append(AUTHOR_NAME).append("\n\n")
-          .append("title: \"").append(title.replace("\"", "\\\"")).append("\"\n\n")
-          .append("slug: ").append(slug).append("\n\n")
-          .append("date: ").append(dateFormatted).append("\n\n");
+    /**
+     * @return Markdown file name of the post, prefixed with its year and month
+     */
+    static String outputFileName(PostSource.PostSummary summary) {
+        String datePrefix = String.format("%d-%02d", summary.date().get(ChronoField.YEAR), summary.date().get(ChronoField.MONTH_OF_YEAR));
+
+        return datePrefix + "-" + summary.pageName().replace(".htm", ".md");
+    }
 
-        if(StringUtils.isNotEmpty(category)) {
-            sb.append("categories:\n").append("  - ").append(doc.getAsText("CustomCategory", ' ')).append("\n\n");
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("Error deleting " + path + ": " + e.getMessage());
         }
+    }
+
+    private String preprocessHtml(String content) {
+        return htmlRewriter.rewrite(content);
+    }
+
+    /**
+     * Virtual writers are cheap, so with them, every queued post can wait for its images at the same time.
+     */
+    private static int writerThreads() {
+        return IO_THREADS.isVirtual() ? Math.max(WRITER_THREADS, QUEUE_CAPACITY) : WRITER_THREADS;
+    }
+
+    /**
+     * With virtual threads, responses are handled (e.g. images saved) on virtual threads too.
+     */
+    private static HttpClient newHttpClient() {
+        HttpClient.Builder builder = HttpClient.newBuilder();
 
-        if(!tags.isEmpty() && StringUtils.isNotEmpty(tags.get(0))) {
-            sb.append("tags:\n");
-            tags.forEach(tag -> sb.append("  - ").append(tag).append("\n"));
+        if (IO_THREADS.isVirtual()) {
+            builder.executor(IO_THREADS.executor());
         }
 
-        sb.append("---\n\n");
+        return builder.build();
+    }
+
+    private static int intEnv(String name, int defaultValue, int min) {
+        return intEnv(name, defaultValue, min, Integer.MAX_VALUE);
+    }
+
+    private static int intEnv(String name, int defaultValue, int min, int max) {
+        return (int) parseNumber(name, System.getenv(name), defaultValue, min, max);
+    }
+
+    private static long longEnv(String name, long defaultValue, long min) {
+        return parseNumber(name, System.getenv(name), defaultValue, min, Long.MAX_VALUE);
+    }
 
-        return sb.toString();
+    private static List<Integer> intListEnv(String name) {
+        return Arrays.stream(StringUtils.split(StringUtils.defaultString(System.getenv(name)), ", "))
+                     .map(value -> (int) parseNumber(name, value, 0, 1, Integer.MAX_VALUE))
+                     .toList();
     }
 
-    private String extractPostHtml(Document doc) {
-        // Blog database has a RichText field called "Rt" containing the calculated HTML output
-        RichTextRecordList item = doc.getRichTextItem("Rt");
+    /**
+     * Parses the value of a numeric environment property. A misconfigured number stops the export with a message naming
+     * the property, instead of falling back to the default or failing somewhere later.
+     * @param value property value, {@code null} or blank for the default
+     * @throws IllegalArgumentException if the value is not a whole number from {@code min} to {@code max}
+     */
+    static long parseNumber(String name, String value, long defaultValue, long min, long max) {
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+
+        try {
+            long number = Long.parseLong(value.strip());
+
+            if (number >= min && number <= max) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
 
-        return item.extractText();
+        throw new IllegalArgumentException("Invalid value '" + value + "' of environment property " + name + ", expected a whole number from "
+                                           + min + " to " + max);
     }
 }
@@ -0,0 +1,63 @@
+package com.developi.blog;
+
+import java.time.temporal.TemporalAccessor;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Everything we need from a blog document to render a post. Values are copied out of the source (e.g. the note),
+ * so a post can be passed around threads without keeping the Domino document open.
+ *
+ * @param unid     UNID of the source document
+ * @param pageName original page name (res_title), e.g. "my-post.htm"
+ * @param title    post title
+ * @param slug     page name without the ".htm" extension
+ * @param date     publishing date (fulldatetime or creation date)
+ * @param lastModified last modification time of the document in epoch millis
+ * @param category custom category, may be empty
+ * @param tags     custom tags, may be empty
+ * @param html     calculated HTML content of the post
+ * @param embeddedImages images copied out of the note, by element name (e.g. "M3"). Empty if images are downloaded.
+ */
+public record BlogPost(String unid,
+                       String pageName,
+                       String title,
+                       String slug,
+                       TemporalAccessor date,
+                       long lastModified,
+                       String category,
+                       List<String> tags,
+                       String html,
+                       Map<String, EmbeddedImage> embeddedImages) {
+
+    public BlogPost(String unid, String pageName, String title, String slug, TemporalAccessor date, long lastModified,
+                    String category, List<String> tags, String html) {
+        this(unid, pageName, title, slug, date, lastModified, category, tags, html, Map.of());
+    }
+
+    /**
+     * @param imageUrl image URL as found in the HTML
+     * @return image copied out of the note for this URL, or null if it has to be downloaded
+     */
+    public EmbeddedImage embeddedImage(String imageUrl) {
+        if (embeddedImages.isEmpty()) {
+            return null;
+        }
+
+        String elementName = NoteImageExtractor.elementName(imageUrl, pageName);
+
+        return elementName == null ? null : embeddedImages.get(elementName);
+    }
+
+    /**
+     * Deletes temporary files of embedded images which were not stored, e.g. when the conversion fails.
+     */
+    public void deleteEmbeddedImages() {
+        embeddedImages.values().forEach(EmbeddedImage::delete);
+    }
+
+    @Override
+    public String toString() {
+        return pageName;
+    }
+}
@@ -0,0 +1,54 @@
+package com.developi.blog;
+
+import java.nio.file.Path;
+
+/**
+ * Per-conversion state for {@link MarkDownConverter}: how to resolve links and where images go.
+ * One converter can serve many contexts, e.g. for several blogs in the same JVM.
+ *
+ * @param linkIndex      page name to file name of posts, to resolve internal links
+ * @param imageSink      receives embedded images and returns the local file name to link to
+ * @param imageUrlPrefix relative path from posts to images, used in image links
+ * @param linkListener   is told about every link and how it's resolved, may be null
+ */
+public record ConversionContext(LinkIndex linkIndex, ImageSink imageSink, String imageUrlPrefix, LinkListener linkListener) {
+
+    public ConversionContext(LinkIndex linkIndex, ImageSink imageSink, String imageUrlPrefix) {
+        this(linkIndex, imageSink, imageUrlPrefix, null);
+    }
+
+    /**
+     * Receives embedded images found during the conversion.
+     */
+    @FunctionalInterface
+    public interface ImageSink {
+
+        /**
+         * @param imageUrl     image URL as found in the HTML
+         * @param baseFileName file name (without extension) to save the image with
+         * @return file name to use in the Markdown link
+         */
+        String request(String imageUrl, String baseFileName);
+    }
+
+    /**
+     * Observes links found during the conversion, e.g. to find links to unknown posts.
+     */
+    @FunctionalInterface
+    public interface LinkListener {
+
+        /**
+         * @param url      link URL as found in the HTML
+         * @param fileName file name of the linked post, null if the link is not resolved
+         */
+        void onLink(String url, String fileName);
+    }
+
+    /**
+     * @param postsDir directory for the posts
+     * @param imgDir   directory for the images
+     */
+    public static ConversionContext of(LinkIndex linkIndex, ImageSink imageSink, Path postsDir, Path imgDir) {
+        return new ConversionContext(linkIndex, imageSink, postsDir.relativize(imgDir).toString());
+    }
+}
@@ -0,0 +1,251 @@
+package com.developi.blog;
+
+import com.developi.jnx.utils.DominoRunner;
+import com.hcl.domino.DominoClient;
+import com.hcl.domino.data.CollectionEntry;
+import com.hcl.domino.data.Database;
+import com.hcl.domino.data.Document;
+import com.hcl.domino.data.DominoCollection;
+import com.hcl.domino.data.DominoDateTime;
+import com.hcl.domino.richtext.RichTextRecordList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Reads posts from a Domino blog database via JNX.
+ * <p>
+ * Summaries are read from the column values of the content view with the given client, in batches, without opening
+ * documents. Posts are loaded by reader threads, each initialised with its own Domino thread context and client.
+ * Documents are released as soon as the post data is copied.
+ */
+public class DominoPostSource implements PostSource {
+
+    private static final String VIEW_NAME = "vContent2";
+
+    // Note ids of category entries have this flag
+    private static final int NOTEID_CATEGORY = 0x80000000;
+
+    private final DominoClient client;
+    private final String dbName;
+    private final int readerThreads;
+    private final int viewBatchSize;
+    private final ViewColumns columns;
+    private final NoteImageExtractor imageExtractor;
+    private final ExportMetrics metrics;
+
+    /**
+     * Programmatic names of the content view columns used for summaries.
+     *
+     * @param pageName     page name (res_title)
+     * @param date         publishing date (fulldatetime)
+     * @param lastModified last modification time, e.g. a column with @Modified. Optional, if empty, the modification
+     *                     time is compared right after the note is opened, before its content is read.
+     */
+    public record ViewColumns(String pageName, String date, String lastModified) {
+
+    }
+
+    /**
+     * @param client        client of the current thread, used for the first pass
+     * @param dbName        database name, e.g. server!!blog.nsf
+     * @param readerThreads number of threads loading documents in the second pass
+     * @param viewBatchSize number of view entries read at once in the first pass
+     * @param columns       view columns to read summaries from
+     * @param imageExtractor copies embedded images out of the notes, null to download all images over HTTP
+     * @param metrics       records the time spent reading documents
+     */
+    public DominoPostSource(DominoClient client, String dbName, int readerThreads, int viewBatchSize, ViewColumns columns,
+                            NoteImageExtractor imageExtractor, ExportMetrics metrics) {
+        this.client = client;
+        this.dbName = dbName;
+        this.readerThreads = Math.max(1, readerThreads);
+        this.viewBatchSize = Math.max(1, viewBatchSize);
+        this.columns = columns;
+        this.imageExtractor = imageExtractor;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void forEachSummary(Consumer<PostSummary> consumer) {
+        Database db = client.openDatabase(dbName);
+        DominoCollection collection = db.openCollection(VIEW_NAME).orElseThrow();
+
+        int skip = 0;
+        int fromDocuments = 0;
+        List<CollectionEntry> entries;
+
+        do {
+            entries = collection.query()
+                                .readColumnValues()
+                                .readUNID()
+                                .collectEntries(skip, viewBatchSize);
+
+            for (CollectionEntry entry : entries) {
+                if ((entry.getNoteID() & NOTEID_CATEGORY) != 0) {
+                    continue;
+                }
+
+                PostSummary summary = readSummary(entry);
+
+                if (summary == null) {
+                    // Columns are missing in the view, fall back to the document
+                    summary = db.getDocumentByUNID(entry.getUNID()).map(this::readSummary).orElse(null);
+                    fromDocuments++;
+                }
+
+                if (summary != null) {
+                    consumer.accept(summary);
+                }
+            }
+
+            skip += entries.size();
+        } while (entries.size() == viewBatchSize);
+
+        if (fromDocuments > 0) {
+            System.out.println(fromDocuments + " summaries read from documents. Check the view columns '" + columns.pageName() + "' and '" + columns.date() + "'.");
+        }
+    }
+
+    /**
+     * @return summary from the column values, null if the page name or the date are missing
+     */
+    private PostSummary readSummary(CollectionEntry entry) {
+        String pageName = entry.getAsText(columns.pageName(), ' ');
+        DominoDateTime date = entry.get(columns.date(), DominoDateTime.class, null);
+
+        if (StringUtils.isEmpty(pageName) || date == null) {
+            return null;
+        }
+
+        long lastModified = StringUtils.isEmpty(columns.lastModified()) ? 0
+            : toEpochMillis(entry.get(columns.lastModified(), DominoDateTime.class, null));
+
+        return new PostSummary(entry.getUNID(), pageName, date, lastModified);
+    }
+
+    private PostSummary readSummary(Document doc) {
+        DominoDateTime dateCreated = doc.get("fulldatetime", DominoDateTime.class, doc.getCreated());
+
+        return new PostSummary(doc.getUNID(), doc.getAsText("res_title", ' '), dateCreated, toEpochMillis(doc.getLastModified()));
+    }
+
+    @Override
+    public void forEachPost(Collection<PostSummary> posts, ChangeFilter filter, Consumer<BlogPost> consumer) {
+        Queue<PostSummary> queue = new ConcurrentLinkedQueue<>(posts);
+        List<Thread> readers = new ArrayList<>(readerThreads);
+
+        // First failure of a reader, e.g. the database can't be opened. The other readers stop too.
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        for (int i = 0; i < readerThreads; i++) {
+            Thread reader = new Thread(() -> {
+                try {
+                    DominoRunner.runInDominoThread(threadClient -> readPosts(threadClient, queue, filter, consumer, failure));
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }, "domino-reader-" + i);
+
+            reader.start();
+            readers.add(reader);
+        }
+
+        for (Thread reader : readers) {
+            try {
+                reader.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+
+        Throwable t = failure.get();
+        if (t instanceof CancellationException cancellation) {
+            throw cancellation;
+        }
+        if (t != null) {
+            throw new RuntimeException("Error reading posts from " + dbName + ": " + t.getMessage(), t);
+        }
+    }
+
+    /**
+     * Reads posts from the queue until it's empty or another reader failed. Runs on a Domino thread.
+     */
+    private void readPosts(DominoClient threadClient, Queue<PostSummary> queue, ChangeFilter filter, Consumer<BlogPost> consumer,
+                           AtomicReference<Throwable> failure) {
+        Database db = threadClient.openDatabase(dbName);
+
+        PostSummary summary;
+        while (failure.get() == null && (summary = queue.poll()) != null) {
+            String pageName = summary.pageName();
+
+            try {
+                long start = System.nanoTime();
+                Optional<Document> doc = db.getDocumentByUNID(summary.unid());
+
+                // Without a modification time in the summary, unchanged posts are skipped before the rich text
+                // and the images are read
+                if (doc.isEmpty()) {
+                    System.err.println("Document not found: " + pageName + " (" + summary.unid() + ")");
+                    metrics.fail(ExportMetrics.Counter.POSTS_FAILED, pageName, "Document not found: " + summary.unid());
+                } else if (summary.isLastModifiedKnown() || filter.needsExport(summary.unid(), toEpochMillis(doc.get().getLastModified()))) {
+                    BlogPost post = readPost(pageName, doc.get());
+                    metrics.record(ExportMetrics.Stage.READ_POST, pageName, System.nanoTime() - start);
+
+                    consumer.accept(post);
+                }
+            } catch (CancellationException e) {
+                // The consumer stops the source
+                throw e;
+            } catch (Exception e) {
+                System.err.println("Error reading " + pageName + ": " + e.getMessage());
+                metrics.fail(ExportMetrics.Counter.POSTS_FAILED, pageName, e);
+            }
+        }
+    }
+
+    /**
+     * Copies the post data and its embedded images out of the document. Runs on a Domino thread.
+     */
+    private BlogPost readPost(String pageName, Document doc) {
+        String slug = pageName.endsWith(".htm") ? pageName.substring(0, pageName.length() - 4) : pageName;
+        DominoDateTime dateCreated = doc.get("fulldatetime", DominoDateTime.class, doc.getCreated());
+        String html = metrics.time(ExportMetrics.Stage.EXTRACT_HTML, pageName, () -> extractPostHtml(doc));
+
+        Map<String, EmbeddedImage> embeddedImages = imageExtractor == null ? Map.of()
+            : metrics.time(ExportMetrics.Stage.EXTRACT_IMAGES, pageName, () -> imageExtractor.extract(doc, html));
+
+        return new BlogPost(
+            doc.getUNID(),
+            pageName,
+            doc.getAsText("Subject", ' '),
+            slug,
+            dateCreated,
+            toEpochMillis(doc.getLastModified()),
+            doc.getAsText("CustomCategory", ' '),
+            doc.getAsList("CustomTags", String.class, List.of()),
+            html,
+            embeddedImages
+        );
+    }
+
+    private String extractPostHtml(Document doc) {
+        // Blog database has a RichText field called "Rt" containing the calculated HTML output
+        RichTextRecordList item = doc.getRichTextItem("Rt");
+
+        return item.extractText();
+    }
+
+    private static long toEpochMillis(DominoDateTime dateTime) {
+        return dateTime == null ? 0 : dateTime.toOffsetDateTime().toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,24 @@
+package com.developi.blog;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Image copied out of the note into a temporary file, so it doesn't have to be downloaded over HTTP.
+ *
+ * @param tempFile temporary file with the content. Moved into place when the image is stored, deleted otherwise.
+ * @param size     size in bytes
+ * @param sha256   SHA-256 of the content
+ * @param mimeType MIME type detected from the content, or from the attachment name if the format is not known, e.g. image/png
+ */
+public record EmbeddedImage(Path tempFile, long size, String sha256, String mimeType) {
+
+    public void delete() {
+        try {
+            Files.deleteIfExists(tempFile);
+        } catch (IOException e) {
+            System.err.println("Error deleting temporary file " + tempFile + ": " + e.getMessage());
+        }
+    }
+}
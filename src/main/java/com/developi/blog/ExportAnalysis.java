@@ -0,0 +1,299 @@
+package com.developi.blog;
+
+import com.developi.jnx.utils.DominoRunner;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+
+/**
+ * Dry run: converts all posts in memory to estimate the cost of an export, without writing posts or downloading images.
+ * <p>
+ * The conversion is the same as in the export, with instrumented sinks: embedded images are counted instead of
+ * downloaded, and links are checked against the file name mapping. The report lists post and HTML sizes, unique and
+ * duplicate images, links to posts which are not in the mapping, the projected text output size and conversion times.
+ * It's written as JSON next to the metrics report of the blog ({@value #FILE_NAME}).
+ * <p>
+ * The projected size covers the Markdown (and HTML) files only. Images are not downloaded, so their size is unknown.
+ */
+public class ExportAnalysis {
+
+    public static final String FILE_NAME = ".export-analysis.json";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    // Number of unresolved links and most referenced images listed in the report
+    private static final int TOP_LIMIT = 50;
+
+    private final ExportTarget target;
+    private final ExportMetrics metrics = new ExportMetrics();
+    private final HtmlRewriter htmlRewriter = HtmlRewriter.fromConfiguration(System.getenv("HTML_RULES"));
+    private final MarkDownConverter markDownConverter = new MarkDownConverter();
+
+    private final Queue<PostStats> posts = new ConcurrentLinkedQueue<>();
+    private final Map<String, LongAdder> imageReferences = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> unresolvedLinks = new ConcurrentHashMap<>();
+    private final LongAdder resolvedLinks = new LongAdder();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    private LinkIndex linkIndex;
+
+    /**
+     * @param convertNanos time spent to preprocess and convert the post
+     */
+    private record PostStats(String pageName, long htmlBytes, long markdownBytes, long convertNanos) {
+
+    }
+
+    public ExportAnalysis(ExportTarget target) {
+        this.target = target;
+    }
+
+    /**
+     * Analyses the blogs one after the other. The Domino process is initialised once, if any of them needs it.
+     * A failing blog doesn't stop the others.
+     */
+    public static void run(List<ExportTarget> targets) {
+        if (targets.stream().allMatch(ExportTarget::isOffline)) {
+            runAll(targets, (target, metrics) -> new JsonLinesPostSource(Path.of(target.sourceFile()), metrics));
+            return;
+        }
+
+        // Images are only counted, so they are not copied out of the notes either
+        DominoRunner.runWithDominoClient(client -> runAll(targets, (target, metrics) -> target.isOffline()
+            ? new JsonLinesPostSource(Path.of(target.sourceFile()), metrics)
+            : new DominoPostSource(client, target.dbName(), BlogConverter.READER_THREADS, BlogConverter.VIEW_BATCH_SIZE,
+                                   BlogConverter.VIEW_COLUMNS, null, metrics)), false);
+    }
+
+    private static void runAll(List<ExportTarget> targets, BiFunction<ExportTarget, ExportMetrics, PostSource> sources) {
+        int failedBlogs = 0;
+
+        for (ExportTarget target : targets) {
+            try {
+                ExportAnalysis analysis = new ExportAnalysis(target);
+                analysis.run(sources.apply(target, analysis.metrics));
+            } catch (RuntimeException e) {
+                System.err.println("Analysis of " + target.name() + " failed: " + e.getMessage());
+                failedBlogs++;
+            }
+        }
+
+        if (failedBlogs > 0) {
+            throw new RuntimeException(failedBlogs + " of " + targets.size() + " blog(s) could not be analysed");
+        }
+    }
+
+    public void run(PostSource source) {
+        System.out.println("Analysing blog: " + target.name());
+
+        Map<String, String> fileNameMapping = new HashMap<>();
+        List<PostSource.PostSummary> summaries = new ArrayList<>();
+
+        source.forEachSummary(summary -> {
+            fileNameMapping.put(summary.pageName(), BlogConverter.outputFileName(summary));
+            summaries.add(summary);
+        });
+
+        System.out.println("Posts found: " + summaries.size());
+        linkIndex = LinkIndex.of(fileNameMapping, target.baseUrl());
+
+        // Conversion is CPU-bound, readers are held back while the converters are busy
+        ExecutorService converters = Executors.newFixedThreadPool(Math.max(1, BlogConverter.PARALLELISM));
+        Semaphore queued = new Semaphore(Math.max(1, BlogConverter.PARALLELISM + BlogConverter.QUEUE_CAPACITY));
+
+        try {
+            source.forEachPost(summaries, post -> {
+                queued.acquireUninterruptibly();
+                converters.execute(() -> {
+                    try {
+                        analyse(post);
+                    } catch (Exception e) {
+                        System.err.println("Error converting " + post.pageName() + ": " + e.getMessage());
+                        failed.incrementAndGet();
+                    } finally {
+                        queued.release();
+                    }
+                });
+            });
+        } finally {
+            converters.shutdown();
+        }
+
+        try {
+            converters.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+
+        metrics.finish();
+        writeReport();
+    }
+
+    private void analyse(BlogPost post) {
+        String pageName = post.pageName();
+        long start = System.nanoTime();
+
+        ConversionContext context = new ConversionContext(
+            linkIndex,
+            (url, baseFileName) -> {
+                imageReferences.computeIfAbsent(url, key -> new LongAdder()).increment();
+                return baseFileName + ".png";
+            },
+            "img",
+            (url, fileName) -> {
+                if (fileName != null) {
+                    resolvedLinks.increment();
+                } else if (linkIndex.isBlogLink(url)) {
+                    unresolvedLinks.computeIfAbsent(url, key -> ConcurrentHashMap.newKeySet()).add(pageName);
+                }
+            });
+
+        String html = htmlRewriter.rewrite(post.html());
+
+        // Same rendering as the export
+        StringBuilder content = new StringBuilder(html.length() + 1024);
+        PostFormatter.render(post, html, target.authorName(), markDownConverter, context, content);
+
+        long markdownBytes = utf8Length(content) + (target.htmlOutput() ? utf8Length(html) : 0);
+        posts.add(new PostStats(pageName, utf8Length(post.html()), markdownBytes, System.nanoTime() - start));
+    }
+
+    private void writeReport() {
+        List<PostStats> stats = List.copyOf(posts);
+        double seconds = metrics.elapsedSeconds();
+
+        long imageRefs = imageReferences.values().stream().mapToLong(LongAdder::sum).sum();
+        long duplicatedImages = imageReferences.values().stream().filter(count -> count.sum() > 1).count();
+        long unresolvedRefs = unresolvedLinks.values().stream().mapToLong(Set::size).sum();
+        // Text only, the images are not downloaded
+        long projectedTextBytes = stats.stream().mapToLong(PostStats::markdownBytes).sum();
+
+        // Posts which could not be read are reported by the source
+        long failedPosts = failed.get() + metrics.get(ExportMetrics.Counter.POSTS_FAILED);
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("blog", target.name());
+        report.put("elapsedSeconds", seconds);
+        report.put("postsPerSecond", stats.size() / Math.max(seconds, 0.001));
+        report.put("posts", stats.size());
+        report.put("failed", failedPosts);
+        report.put("htmlBytes", distribution(stats.stream().mapToLong(PostStats::htmlBytes).toArray()));
+        report.put("outputBytes", distribution(stats.stream().mapToLong(PostStats::markdownBytes).toArray()));
+        report.put("projectedTextBytes", projectedTextBytes);
+        report.put("convertMillis", distribution(stats.stream().mapToLong(post -> post.convertNanos() / 1_000_000).toArray()));
+        report.put("largestPosts", stats.stream()
+                                        .sorted(Comparator.comparingLong(PostStats::htmlBytes).reversed())
+                                        .limit(10)
+                                        .map(PostStats::pageName)
+                                        .toList());
+
+        Map<String, Object> images = new LinkedHashMap<>();
+        images.put("references", imageRefs);
+        images.put("unique", imageReferences.size());
+        images.put("duplicateReferences", imageRefs - imageReferences.size());
+        images.put("referencedMoreThanOnce", duplicatedImages);
+        images.put("mostReferenced", top(imageReferences.entrySet().stream()
+                                                         .filter(entry -> entry.getValue().sum() > 1)
+                                                         .sorted(Comparator.comparingLong((Map.Entry<String, LongAdder> entry) -> entry.getValue().sum()).reversed())
+                                                         .limit(TOP_LIMIT)
+                                                         .toList()));
+        report.put("images", images);
+
+        Map<String, Object> links = new LinkedHashMap<>();
+        links.put("resolved", resolvedLinks.sum());
+        links.put("unresolved", unresolvedRefs);
+        links.put("unresolvedUrls", unresolvedLinks.size());
+
+        Map<String, List<String>> unresolved = new LinkedHashMap<>();
+        unresolvedLinks.entrySet().stream()
+                       .sorted(Map.Entry.comparingByKey())
+                       .limit(TOP_LIMIT)
+                       .forEach(entry -> unresolved.put(entry.getKey(), entry.getValue().stream().sorted().toList()));
+        links.put("unresolvedLinks", unresolved);
+        report.put("links", links);
+
+        Path reportFile = target.metricsFile().resolveSibling(FILE_NAME);
+
+        try {
+            Files.createDirectories(reportFile.getParent());
+            MAPPER.writeValue(reportFile.toFile(), report);
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing analysis report " + reportFile, e);
+        }
+
+        System.out.printf("%d posts analysed in %.1f s, %d failed. Projected text output, without images: %.1f MB%n",
+                          stats.size(), seconds, failedPosts, projectedTextBytes / 1048576.0);
+        System.out.printf("Images: %d references, %d unique. Links: %d resolved, %d unresolved (%d URLs)%n",
+                          imageRefs, imageReferences.size(), resolvedLinks.sum(), unresolvedRefs, unresolvedLinks.size());
+        System.out.println("Analysis report: " + reportFile);
+    }
+
+    private static Map<String, Long> top(List<Map.Entry<String, LongAdder>> entries) {
+        Map<String, Long> top = new LinkedHashMap<>();
+        entries.forEach(entry -> top.put(entry.getKey(), entry.getValue().sum()));
+        return top;
+    }
+
+    private static Map<String, Long> distribution(long[] values) {
+        Map<String, Long> distribution = new LinkedHashMap<>();
+
+        if (values.length == 0) {
+            return distribution;
+        }
+
+        Arrays.sort(values);
+        distribution.put("total", Arrays.stream(values).sum());
+        distribution.put("min", values[0]);
+        distribution.put("p50", ExportMetrics.percentile(values, 50));
+        distribution.put("p90", ExportMetrics.percentile(values, 90));
+        distribution.put("p99", ExportMetrics.percentile(values, 99));
+        distribution.put("max", values[values.length - 1]);
+
+        return distribution;
+    }
+
+    /**
+     * Size of the text in UTF-8, without encoding it.
+     */
+    private static long utf8Length(CharSequence text) {
+        long length = 0;
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+
+        return length;
+    }
+}
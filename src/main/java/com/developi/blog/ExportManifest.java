@@ -0,0 +1,288 @@
+package com.developi.blog;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Keeps track of exported posts between runs, so unchanged posts are not converted again.
+ * <p>
+ * The manifest is a JSON file in the posts directory, mapping the UNID of each exported document to its last
+ * modification time, the hash of the Markdown output, the output file name, images it refers to and its links to other
+ * posts. A post is up to date only if its links still resolve to the same files, so it's converted again when a post it
+ * links to is created, renamed or deleted.
+ * <p>
+ * The manifest is saved at the end of the run. Until then, each exported post is appended to a checkpoint file next to
+ * it. If a run is interrupted, the next one loads the checkpoint too and skips the posts that were already exported.
+ * <p>
+ * A sharded export keeps a manifest and a checkpoint per {@link Shard}, merged into the regular manifest afterwards.
+ */
+public class ExportManifest {
+
+    public static final String FILE_NAME = ".export-manifest.json";
+    public static final String CHECKPOINT_FILE_NAME = ".export-checkpoint.jsonl";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    private static final ObjectWriter CHECKPOINT_WRITER = MAPPER.writer().without(SerializationFeature.INDENT_OUTPUT);
+
+    private final Path manifestFile;
+    private final Path checkpointFile;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    // Opened with the first exported post
+    private Writer checkpoint;
+
+    /**
+     * @param unid         UNID of the source document
+     * @param pageName     original page name
+     * @param lastModified last modification time of the document in epoch millis
+     * @param contentHash  SHA-256 of the Markdown output
+     * @param fileName     output file name, relative to the posts directory
+     * @param images       image file names referred by the post, relative to the image directory
+     * @param links        links to other posts of the blog as found in the post, sorted, resolved or not
+     * @param linkHash     hash of the links and the files they resolved to, see {@link #linkHash(Collection, LinkIndex)}.
+     *                     Null if the post is to be exported again, e.g. some images could not be downloaded.
+     */
+    public record Entry(String unid, String pageName, long lastModified, String contentHash, String fileName, List<String> images,
+                        List<String> links, String linkHash) {
+
+    }
+
+    private ExportManifest(Path manifestFile, Path checkpointFile) {
+        this.manifestFile = manifestFile;
+        this.checkpointFile = checkpointFile;
+    }
+
+    /**
+     * Loads the manifest from the given file. A missing file gives an empty manifest, i.e. a full export.
+     */
+    public static ExportManifest load(Path manifestFile) {
+        return load(manifestFile, manifestFile.resolveSibling(CHECKPOINT_FILE_NAME));
+    }
+
+    /**
+     * Loads the manifest of a shard from the posts directory. The first run of a shard starts with its posts from the
+     * regular manifest, e.g. from an export before sharding.
+     */
+    public static ExportManifest load(Path postsDir, Shard shard) {
+        Path manifestFile = postsDir.resolve(shard.fileName(FILE_NAME));
+        ExportManifest manifest = new ExportManifest(manifestFile, postsDir.resolve(shard.fileName(CHECKPOINT_FILE_NAME)));
+
+        manifest.read(Files.exists(manifestFile) ? manifestFile : postsDir.resolve(FILE_NAME));
+        manifest.entries.keySet().removeIf(unid -> !shard.contains(unid));
+        manifest.loadCheckpoint();
+
+        return manifest;
+    }
+
+    private static ExportManifest load(Path manifestFile, Path checkpointFile) {
+        ExportManifest manifest = new ExportManifest(manifestFile, checkpointFile);
+
+        manifest.read(manifestFile);
+        manifest.loadCheckpoint();
+
+        return manifest;
+    }
+
+    private void read(Path file) {
+        if (Files.exists(file)) {
+            try {
+                Map<String, Entry> saved = MAPPER.readValue(file.toFile(), new TypeReference<Map<String, Entry>>() {});
+                entries.putAll(saved);
+            } catch (IOException e) {
+                System.err.println("Unable to read the manifest, doing a full export: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Merges the manifests of all shards in the posts directory into the regular manifest. Each shard contributes only
+     * its own posts, posts of missing shards are kept from the regular manifest.
+     *
+     * @return number of merged shards
+     */
+    public static int mergeShards(Path postsDir) {
+        Map<Shard, Path> shardFiles = Shard.findFiles(postsDir, FILE_NAME);
+
+        if (shardFiles.isEmpty()) {
+            return 0;
+        }
+
+        ExportManifest merged = load(postsDir.resolve(FILE_NAME));
+
+        shardFiles.forEach((shard, file) -> {
+            // Includes the checkpoint of an interrupted shard
+            ExportManifest part = load(file, postsDir.resolve(shard.fileName(CHECKPOINT_FILE_NAME)));
+
+            merged.entries.keySet().removeIf(shard::contains);
+            part.entries.forEach((unid, entry) -> {
+                if (shard.contains(unid)) {
+                    merged.entries.put(unid, entry);
+                }
+            });
+        });
+
+        merged.save();
+
+        return shardFiles.size();
+    }
+
+    /**
+     * Adds posts exported by an interrupted run.
+     */
+    private void loadCheckpoint() {
+        if (!Files.exists(checkpointFile)) {
+            return;
+        }
+
+        int count = 0;
+
+        try (BufferedReader reader = Files.newBufferedReader(checkpointFile, StandardCharsets.UTF_8)) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+
+                try {
+                    Entry entry = MAPPER.readValue(line, Entry.class);
+                    entries.put(entry.unid(), entry);
+                    count++;
+                } catch (IOException e) {
+                    // The last line might be cut off by the interruption
+                    System.err.println("Skipping invalid checkpoint line: " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to read the checkpoint: " + e.getMessage());
+        }
+
+        System.out.println("Resuming an interrupted run, " + count + " post(s) were already exported.");
+    }
+
+    /**
+     * Saves the manifest and removes the checkpoint, which is part of the manifest from now on.
+     */
+    public synchronized void save() {
+        Path tempFile = manifestFile.resolveSibling(manifestFile.getFileName() + ".tmp");
+
+        try {
+            // Sorted, so the file is diff-friendly
+            MAPPER.writeValue(tempFile.toFile(), new TreeMap<>(entries));
+            OutputWriter.moveIntoPlace(tempFile, manifestFile);
+        } catch (IOException e) {
+            // Keep the checkpoint, so the next run doesn't export everything again
+            System.err.println("Error writing manifest: " + e.getMessage());
+            return;
+        }
+
+        try {
+            if (checkpoint != null) {
+                checkpoint.close();
+                checkpoint = null;
+            }
+            Files.deleteIfExists(checkpointFile);
+        } catch (IOException e) {
+            System.err.println("Error deleting checkpoint: " + e.getMessage());
+        }
+    }
+
+    public Optional<Entry> get(String unid) {
+        return Optional.ofNullable(entries.get(unid));
+    }
+
+    /**
+     * Records an exported post, also in the checkpoint.
+     */
+    public void put(Entry entry) {
+        entries.put(entry.unid(), entry);
+        appendCheckpoint(entry);
+    }
+
+    private synchronized void appendCheckpoint(Entry entry) {
+        try {
+            if (checkpoint == null) {
+                boolean resumed = Files.exists(checkpointFile);
+                checkpoint = Files.newBufferedWriter(checkpointFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+                if (resumed) {
+                    // Ends a line cut off by the interruption
+                    checkpoint.write('\n');
+                }
+            }
+
+            checkpoint.write(CHECKPOINT_WRITER.writeValueAsString(entry));
+            checkpoint.write('\n');
+            checkpoint.flush();
+        } catch (IOException e) {
+            System.err.println("Error writing checkpoint: " + e.getMessage());
+        }
+    }
+
+    public Optional<Entry> remove(String unid) {
+        return Optional.ofNullable(entries.remove(unid));
+    }
+
+    public Set<String> unids() {
+        return Set.copyOf(entries.keySet());
+    }
+
+    /**
+     * @return true if any entry refers to the given image
+     */
+    public boolean isImageReferenced(String imageFileName) {
+        return entries.values().stream().anyMatch(entry -> entry.images().contains(imageFileName));
+    }
+
+    /**
+     * Checks if the document is exported before with the same modification time, its links resolve to the same files
+     * and the output is still there. Entries of manifests without link hashes are never up to date.
+     * <p>
+     * A post without a modification time (0) is never up to date, it's converted again and the content hash decides if
+     * the output is rewritten.
+     *
+     * @param lastModified last modification time in epoch millis, 0 if unknown
+     * @param linkIndex    links of the current run
+     */
+    public boolean isUpToDate(String unid, long lastModified, Path postsDir, LinkIndex linkIndex) {
+        Entry entry = entries.get(unid);
+
+        return entry != null
+            && lastModified != 0
+            && entry.lastModified() == lastModified
+            && entry.linkHash() != null
+            && entry.linkHash().equals(linkHash(entry.links(), linkIndex))
+            && Files.exists(postsDir.resolve(entry.fileName()));
+    }
+
+    /**
+     * @param links links to other posts, as found in the post
+     * @return hash of the links and the file each one resolves to, empty for unresolved links
+     */
+    public static String linkHash(Collection<String> links, LinkIndex linkIndex) {
+        StringBuilder sb = new StringBuilder();
+
+        for (String link : links) {
+            sb.append(link).append('\t').append(StringUtils.defaultString(linkIndex.get(link))).append('\n');
+        }
+
+        return Hashing.sha256Hex(sb);
+    }
+}
@@ -0,0 +1,284 @@
+package com.developi.blog;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Collects timings and counters of an export run, per post and in aggregate.
+ * <p>
+ * At the end of the run, {@link #printSummary(PrintStream)} prints percentiles of each stage and the throughput, and
+ * {@link #writeReport(Path)} writes the same data with per-post timings as JSON. Failed posts and images are listed in
+ * both. All methods are thread-safe.
+ */
+public class ExportMetrics {
+
+    public enum Stage {
+        VIEW_ITERATION,
+        READ_POST,
+        EXTRACT_HTML,
+        EXTRACT_IMAGES,
+        PREPROCESS_HTML,
+        HTML_TO_MARKDOWN,
+        IMAGE_DOWNLOAD,
+        IMAGE_OPTIMIZE,
+        IMAGE_WAIT,
+        WRITE_FILE,
+        SYNC_OUTPUT
+    }
+
+    public enum Counter {
+        POSTS_EXPORTED,
+        POSTS_UNCHANGED,
+        POSTS_FAILED,
+        IMAGES_FROM_NOTE,
+        IMAGES_NOT_IN_NOTE,
+        IMAGES_DOWNLOADED,
+        IMAGE_BYTES,
+        IMAGES_NOT_MODIFIED,
+        IMAGES_REUSED,
+        IMAGES_RETRIED,
+        IMAGES_OPTIMIZED,
+        IMAGE_BYTES_SAVED,
+        IMAGES_FAILED
+    }
+
+    /**
+     * @param counter POSTS_FAILED or IMAGES_FAILED
+     * @param item    page name of the post or URL of the image
+     * @param message the reason
+     */
+    public record Failure(Counter counter, String item, String message) {
+
+    }
+
+    // Failures shown in the summary, the report has all of them
+    private static final int MAX_FAILURES_PRINTED = 20;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private final Map<Stage, Samples> samples = new EnumMap<>(Stage.class);
+    private final Map<Counter, LongAdder> counters = new EnumMap<>(Counter.class);
+
+    // post -> stage -> nanos
+    private final Map<String, Map<Stage, Long>> perPost = new ConcurrentHashMap<>();
+
+    private final Queue<Failure> failures = new ConcurrentLinkedQueue<>();
+
+    private final long startNanos = System.nanoTime();
+    private volatile long endNanos;
+
+    public ExportMetrics() {
+        for (Stage stage : Stage.values()) {
+            samples.put(stage, new Samples());
+        }
+        for (Counter counter : Counter.values()) {
+            counters.put(counter, new LongAdder());
+        }
+    }
+
+    /**
+     * @param stage   stage of the export
+     * @param postKey the post the time is spent for, or null if it's not about a single post
+     * @param nanos   elapsed time
+     */
+    public void record(Stage stage, String postKey, long nanos) {
+        samples.get(stage).add(nanos);
+
+        if (postKey != null) {
+            perPost.computeIfAbsent(postKey, k -> new ConcurrentHashMap<>()).merge(stage, nanos, Long::sum);
+        }
+    }
+
+    public <T> T time(Stage stage, String postKey, Supplier<T> action) {
+        long start = System.nanoTime();
+
+        try {
+            return action.get();
+        } finally {
+            record(stage, postKey, System.nanoTime() - start);
+        }
+    }
+
+    public void increment(Counter counter) {
+        counters.get(counter).increment();
+    }
+
+    public void add(Counter counter, long value) {
+        counters.get(counter).add(value);
+    }
+
+    /**
+     * Counts and keeps a failed post or image for the report.
+     */
+    public void fail(Counter counter, String item, String message) {
+        increment(counter);
+        failures.add(new Failure(counter, item, message));
+    }
+
+    public void fail(Counter counter, String item, Throwable t) {
+        Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+
+        fail(counter, item, cause.getClass().getSimpleName() + ": " + cause.getMessage());
+    }
+
+    public List<Failure> getFailures() {
+        return List.copyOf(failures);
+    }
+
+    public long get(Counter counter) {
+        return counters.get(counter).sum();
+    }
+
+    /**
+     * Marks the end of the run, for the throughput calculation.
+     */
+    public void finish() {
+        endNanos = System.nanoTime();
+    }
+
+    public double elapsedSeconds() {
+        long end = endNanos == 0 ? System.nanoTime() : endNanos;
+        return (end - startNanos) / 1e9;
+    }
+
+    public void printSummary(PrintStream out) {
+        double seconds = elapsedSeconds();
+        long exported = get(Counter.POSTS_EXPORTED);
+
+        out.println();
+        out.printf("Export finished in %.1f s: %d posts exported (%.1f posts/sec), %d unchanged, %d failed%n",
+                   seconds, exported, exported / Math.max(seconds, 0.001), get(Counter.POSTS_UNCHANGED), get(Counter.POSTS_FAILED));
+        out.printf("Images: %d from notes (%d not found there), %d downloaded (%.1f MB), %d not modified, %d reused, %d retried, %d failed%n",
+                   get(Counter.IMAGES_FROM_NOTE), get(Counter.IMAGES_NOT_IN_NOTE), get(Counter.IMAGES_DOWNLOADED), get(Counter.IMAGE_BYTES) / 1048576.0, get(Counter.IMAGES_NOT_MODIFIED),
+                   get(Counter.IMAGES_REUSED), get(Counter.IMAGES_RETRIED), get(Counter.IMAGES_FAILED));
+
+        if (get(Counter.IMAGES_OPTIMIZED) > 0) {
+            out.printf("Images optimised: %d (%.1f MB saved)%n", get(Counter.IMAGES_OPTIMIZED), get(Counter.IMAGE_BYTES_SAVED) / 1048576.0);
+        }
+
+        out.printf("%-18s %8s %10s %9s %9s %9s %9s %9s%n", "Stage (ms)", "count", "total", "mean", "p50", "p90", "p99", "max");
+
+        samples.forEach((stage, stageSamples) -> {
+            long[] sorted = stageSamples.sorted();
+
+            if (sorted.length > 0) {
+                out.printf("%-18s %8d %10.0f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                           stage, sorted.length, millis(sum(sorted)), millis(sum(sorted)) / sorted.length,
+                           millis(percentile(sorted, 50)), millis(percentile(sorted, 90)), millis(percentile(sorted, 99)),
+                           millis(sorted[sorted.length - 1]));
+            }
+        });
+
+        List<Failure> failureList = getFailures();
+
+        if (!failureList.isEmpty()) {
+            out.println("Failures (rerun to retry them):");
+            failureList.stream()
+                       .limit(MAX_FAILURES_PRINTED)
+                       .forEach(failure -> out.printf("  %-14s %s: %s%n", failure.counter(), failure.item(), failure.message()));
+
+            if (failureList.size() > MAX_FAILURES_PRINTED) {
+                out.println("  ... and " + (failureList.size() - MAX_FAILURES_PRINTED) + " more in the metrics report");
+            }
+        }
+    }
+
+    public void writeReport(Path reportFile) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        double seconds = elapsedSeconds();
+
+        report.put("elapsedSeconds", seconds);
+        report.put("postsPerSecond", get(Counter.POSTS_EXPORTED) / Math.max(seconds, 0.001));
+
+        Map<String, Long> counterValues = new LinkedHashMap<>();
+        counters.forEach((counter, value) -> counterValues.put(counter.name(), value.sum()));
+        report.put("counters", counterValues);
+
+        Map<String, Object> stages = new LinkedHashMap<>();
+        samples.forEach((stage, stageSamples) -> {
+            long[] sorted = stageSamples.sorted();
+
+            if (sorted.length > 0) {
+                Map<String, Object> stats = new LinkedHashMap<>();
+                stats.put("count", sorted.length);
+                stats.put("totalMs", millis(sum(sorted)));
+                stats.put("meanMs", millis(sum(sorted)) / sorted.length);
+                stats.put("p50Ms", millis(percentile(sorted, 50)));
+                stats.put("p90Ms", millis(percentile(sorted, 90)));
+                stats.put("p99Ms", millis(percentile(sorted, 99)));
+                stats.put("maxMs", millis(sorted[sorted.length - 1]));
+                stages.put(stage.name(), stats);
+            }
+        });
+        report.put("stages", stages);
+
+        Map<String, Map<String, Double>> posts = new TreeMap<>();
+        perPost.forEach((post, timings) -> {
+            Map<String, Double> postTimings = new TreeMap<>();
+            timings.forEach((stage, nanos) -> postTimings.put(stage.name(), millis(nanos)));
+            posts.put(post, postTimings);
+        });
+        report.put("posts", posts);
+
+        report.put("failures", getFailures());
+
+        try {
+            MAPPER.writeValue(reportFile.toFile(), report);
+        } catch (IOException e) {
+            System.err.println("Error writing metrics report: " + e.getMessage());
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static long sum(long[] values) {
+        return Arrays.stream(values).sum();
+    }
+
+    /**
+     * Nearest-rank percentile of sorted values.
+     */
+    static long percentile(long[] sorted, int percentile) {
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    /**
+     * Growable array of samples, cheaper than a list of boxed values.
+     */
+    private static class Samples {
+
+        private long[] values = new long[1024];
+        private int size;
+
+        synchronized void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        synchronized long[] sorted() {
+            long[] copy = Arrays.copyOf(values, size);
+            Arrays.sort(copy);
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.developi.blog;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Exports posts in three stages connected with bounded queues:
+ * <ol>
+ *     <li>the post source loads posts (e.g. Domino readers open notes and copy the post data out of them),</li>
+ *     <li>converters do the HTML to Markdown conversion,</li>
+ *     <li>writers write the files.</li>
+ * </ol>
+ * When a stage falls behind, the bounded queue blocks the previous stage (back-pressure), so only a limited number of
+ * posts are in memory at a time. An empty {@link Optional} marks the end of a queue.
+ * <p>
+ * Writers mostly wait for image downloads and the disk, so they run on {@link IoThreads}. The other stages use platform
+ * threads: conversion is CPU-bound and the source may call the Domino API.
+ * <p>
+ * A failing post is reported and skipped. A failing worker (e.g. the source can't open the database, or an
+ * {@link Error} in a converter) cancels the pipeline instead: all stages stop waiting on the queues and
+ * {@link #run(PostSource, Collection)} throws, so the run is not reported as a success with a partial export.
+ */
+public class ExportPipeline {
+
+    // How often threads waiting on a queue check if the pipeline is cancelled
+    private static final long CANCEL_CHECK_MILLIS = 100;
+
+    private final BlogConverter blogConverter;
+    private final ExportMetrics metrics;
+
+    private final int converterThreads;
+    private final int writerThreads;
+    private final IoThreads ioThreads;
+
+    private final BlockingQueue<Optional<BlogPost>> posts;
+    private final BlockingQueue<Optional<RenderedPost>> renderedPosts;
+
+    // First failure of a worker, cancels the pipeline
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    public ExportPipeline(BlogConverter blogConverter, int converterThreads, int writerThreads, int queueCapacity, IoThreads ioThreads,
+                          ExportMetrics metrics) {
+        this.blogConverter = blogConverter;
+        this.metrics = metrics;
+        this.converterThreads = Math.max(1, converterThreads);
+        this.writerThreads = Math.max(1, writerThreads);
+        this.ioThreads = ioThreads;
+
+        this.posts = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.renderedPosts = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+    }
+
+    /**
+     * Exports the given posts and returns when all of them are written.
+     *
+     * @param source    where the posts are loaded from
+     * @param summaries posts to be exported
+     * @throws RuntimeException if a worker failed and the pipeline is cancelled
+     */
+    public void run(PostSource source, Collection<PostSource.PostSummary> summaries) {
+        ThreadFactory platformThreads = Thread::new;
+
+        List<Thread> readers = startStage("reader", 1, platformThreads,
+                                          () -> source.forEachPost(summaries, blogConverter::needsExport, post -> put(posts, post)));
+
+        List<Thread> converters = startStage("converter", converterThreads, platformThreads, () -> drain(posts, post -> put(renderedPosts, blogConverter.render(post))));
+        List<Thread> writers = startStage("writer", writerThreads, ioThreads.factory(), () -> drain(renderedPosts, blogConverter::write));
+
+        try {
+            // Each stage signals the next one when all its workers are done
+            join(readers);
+            put(posts, null);
+
+            join(converters);
+            put(renderedPosts, null);
+        } catch (CancellationException e) {
+            // The workers stop on their own
+        }
+
+        join(readers);
+        join(converters);
+        join(writers);
+
+        Throwable t = failure.get();
+        if (t != null) {
+            throw new RuntimeException("Export cancelled: " + t, t);
+        }
+    }
+
+    private List<Thread> startStage(String name, int threadCount, ThreadFactory threadFactory, Runnable worker) {
+        List<Thread> threads = new ArrayList<>(threadCount);
+
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = threadFactory.newThread(() -> {
+                try {
+                    worker.run();
+                } catch (Throwable t) {
+                    cancel(name, t);
+                }
+            });
+            thread.setName("export-" + name + "-" + i);
+
+            thread.start();
+            threads.add(thread);
+        }
+
+        return threads;
+    }
+
+    /**
+     * Records the first failure and makes all workers stop. Later failures are usually caused by the cancellation.
+     */
+    private void cancel(String stage, Throwable t) {
+        if (failure.compareAndSet(null, t)) {
+            System.err.println("Pipeline stage '" + stage + "' failed, cancelling the export: " + t);
+        }
+    }
+
+    private void checkCancelled() {
+        if (failure.get() != null) {
+            throw new CancellationException("Export cancelled");
+        }
+    }
+
+    /**
+     * Takes items from the queue until the end marker. The marker is put back, so other workers of the same stage stop too.
+     * A failing item is reported and skipped, it doesn't stop the stage. It's not checkpointed, so the next run retries it.
+     * Errors stop the worker and cancel the pipeline.
+     */
+    private <T> void drain(BlockingQueue<Optional<T>> queue, Consumer<T> consumer) {
+        while (true) {
+            Optional<T> item = take(queue);
+
+            if (item.isEmpty()) {
+                put(queue, null);
+                return;
+            }
+
+            try {
+                consumer.accept(item.get());
+            } catch (CancellationException e) {
+                throw e;
+            } catch (Exception e) {
+                System.err.println("Error processing " + item.get() + ": " + e.getMessage());
+                metrics.fail(ExportMetrics.Counter.POSTS_FAILED, item.get().toString(), e);
+            }
+        }
+    }
+
+    /**
+     * @throws CancellationException if the pipeline is cancelled
+     */
+    private <T> Optional<T> take(BlockingQueue<Optional<T>> queue) {
+        try {
+            Optional<T> item;
+
+            do {
+                checkCancelled();
+                item = queue.poll(CANCEL_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+            } while (item == null);
+
+            return item;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @throws CancellationException if the pipeline is cancelled
+     */
+    private <T> void put(BlockingQueue<Optional<T>> queue, T item) {
+        try {
+            do {
+                checkCancelled();
+            } while (!queue.offer(Optional.ofNullable(item), CANCEL_CHECK_MILLIS, TimeUnit.MILLISECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void join(List<Thread> threads) {
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Output of the conversion stage.
+     *
+     * @param post     source post
+     * @param markdown Markdown content including the front matter. Image placeholders are resolved in place.
+     * @param html     preprocessed HTML content
+     * @param links    links to other posts of the blog, sorted
+     */
+    public record RenderedPost(BlogPost post, StringBuilder markdown, String html, List<String> links) {
+
+        @Override
+        public String toString() {
+            return post.pageName();
+        }
+    }
+}
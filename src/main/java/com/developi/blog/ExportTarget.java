@@ -0,0 +1,117 @@
+package com.developi.blog;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * One blog to export: where to read it from and where to write it.
+ *
+ * @param name        name of the blog in messages and reports
+ * @param dbName      database name, e.g. server!!blog.nsf. Not used if a source file is set.
+ * @param sourceFile  JSON-lines file to read posts from, instead of the database
+ * @param baseUrl     base URL for image downloads, e.g. https://www.example.com/blog.nsf/dx/
+ * @param postsDir    target directory for exported posts
+ * @param imgDir      target directory for exported images
+ * @param authorName  author name in the front matter
+ * @param htmlOutput  also write the preprocessed HTML of each post (for debugging)
+ * @param metricsFile JSON report of timings and counters
+ * @param shard       part of the posts exported by this process, {@link Shard#ALL} without sharding
+ */
+public record ExportTarget(String name, String dbName, String sourceFile, String baseUrl, Path postsDir, Path imgDir,
+                           String authorName, boolean htmlOutput, Path metricsFile, Shard shard) {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * Entry of the batch file. Missing values are taken from the environment, like a single export.
+     */
+    record BatchEntry(String name, String dbName, String sourceFile, String baseUrl, String targetBaseDir, String postsDir,
+                      String imgDir, String authorName, Boolean htmlOutput, String metricsFile) {
+    }
+
+    public boolean isOffline() {
+        return StringUtils.isNotEmpty(sourceFile);
+    }
+
+    /**
+     * @return the same target, exporting only the given shard. The metrics report gets the shard suffix.
+     */
+    public ExportTarget withShard(Shard shard) {
+        Path shardMetricsFile = metricsFile.resolveSibling(shard.fileName(metricsFile.getFileName().toString()));
+
+        return new ExportTarget(name, dbName, sourceFile, baseUrl, postsDir, imgDir, authorName, htmlOutput, shardMetricsFile, shard);
+    }
+
+    /**
+     * Single export, configured by environment properties.
+     */
+    public static ExportTarget fromEnvironment() {
+        String sourceFile = System.getenv("SOURCE_FILE");
+
+        if (StringUtils.isEmpty(sourceFile)) {
+            Objects.requireNonNull(System.getenv("DB_NAME"), "Environment variable DB_NAME is required. Set via environment property DB_NAME");
+        }
+        Objects.requireNonNull(System.getenv("BASE_URL"), "Environment variable BASE_URL is required. Set via environment property BASE_URL");
+        Objects.requireNonNull(System.getenv("TARGET_BASE_DIR"), "Environment variable TARGET_BASE_DIR is required. Set via environment property TARGET_BASE_DIR");
+
+        return of(new BatchEntry(null, System.getenv("DB_NAME"), sourceFile, System.getenv("BASE_URL"), System.getenv("TARGET_BASE_DIR"),
+                                 null, null, null, null, System.getenv("METRICS_FILE")));
+    }
+
+    /**
+     * Batch export, configured by a JSON file with an array of targets, e.g.
+     * <pre>
+     * [
+     *   { "name": "team-a", "dbName": "server!!blogs/team-a.nsf", "baseUrl": "https://www.example.com/blogs/team-a.nsf/dx/", "targetBaseDir": "/sites/team-a" },
+     *   { "name": "team-b", "dbName": "server!!blogs/team-b.nsf", "baseUrl": "https://www.example.com/blogs/team-b.nsf/dx/", "targetBaseDir": "/sites/team-b", "authorName": "Team B" }
+     * ]
+     * </pre>
+     */
+    public static List<ExportTarget> fromBatchFile(String batchFile) {
+        List<BatchEntry> entries;
+
+        try {
+            entries = MAPPER.readValue(Path.of(batchFile).toFile(), new TypeReference<List<BatchEntry>>() {});
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read batch file " + batchFile, e);
+        }
+
+        for (int i = 0; i < entries.size(); i++) {
+            BatchEntry entry = entries.get(i);
+            String label = "Batch entry " + (i + 1) + " (" + StringUtils.defaultString(entry.name()) + ")";
+
+            if (StringUtils.isAllEmpty(entry.dbName(), entry.sourceFile())) {
+                throw new IllegalArgumentException(label + ": dbName or sourceFile is required");
+            }
+            Objects.requireNonNull(entry.baseUrl(), label + ": baseUrl is required");
+            Objects.requireNonNull(entry.targetBaseDir(), label + ": targetBaseDir is required");
+        }
+
+        return entries.stream().map(ExportTarget::of).toList();
+    }
+
+    private static ExportTarget of(BatchEntry entry) {
+        Path basePath = Path.of(StringUtils.defaultString(entry.targetBaseDir()));
+        Path postsDir = basePath.resolve(StringUtils.firstNonEmpty(entry.postsDir(), System.getenv("POSTS_DIR"), "posts/imported"));
+        Path imgDir = basePath.resolve(StringUtils.firstNonEmpty(entry.imgDir(), System.getenv("IMG_DIR"), "images/imported"));
+        String metricsFile = StringUtils.defaultIfEmpty(entry.metricsFile(), postsDir.resolve(".export-metrics.json").toString());
+
+        return new ExportTarget(
+            StringUtils.firstNonEmpty(entry.name(), entry.dbName(), entry.sourceFile()),
+            entry.dbName(),
+            entry.sourceFile(),
+            entry.baseUrl(),
+            postsDir,
+            imgDir,
+            StringUtils.firstNonEmpty(entry.authorName(), System.getenv("AUTHOR_NAME"), "Unknown"),
+            entry.htmlOutput() != null ? entry.htmlOutput() : Boolean.parseBoolean(System.getenv("HTML_OUTPUT")),
+            Path.of(metricsFile),
+            Shard.ALL
+        );
+    }
+}
@@ -0,0 +1,66 @@
+package com.developi.blog;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * SHA-256 helpers for content comparison.
+ */
+public final class Hashing {
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private Hashing() {
+    }
+
+    public static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String sha256Hex(byte[] content) {
+        return HexFormat.of().formatHex(newSha256().digest(content));
+    }
+
+    /**
+     * @return hash of the UTF-8 encoded text. Encodes in small chunks, without a copy of the whole text.
+     */
+    public static String sha256Hex(CharSequence content) {
+        MessageDigest digest = newSha256();
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                                                       .onMalformedInput(CodingErrorAction.REPLACE)
+                                                       .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer in = CharBuffer.wrap(content);
+        ByteBuffer out = ByteBuffer.allocate(CHUNK_SIZE);
+
+        // Same bytes as String.getBytes, unpaired surrogates become '?'
+        CoderResult result;
+        do {
+            result = encoder.encode(in, out, true);
+            out.flip();
+            digest.update(out);
+            out.clear();
+        } while (result.isOverflow());
+
+        encoder.flush(out);
+        out.flip();
+        digest.update(out);
+
+        return toHex(digest);
+    }
+
+    public static String toHex(MessageDigest digest) {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
@@ -0,0 +1,122 @@
+package com.developi.blog;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Applies a list of regex rewrite rules to HTML, one after the other.
+ * <p>
+ * Each rule sees the output of the rules before it, exactly like a chain of {@code String.replaceAll} calls. The
+ * patterns are compiled once, when the rewriter is created, instead of on every call.
+ * <p>
+ * Replacements use the syntax of {@link java.util.regex.Matcher#replaceAll(String)}: {@code $n} refers to the n-th
+ * group, {@code \} escapes the next character.
+ */
+public class HtmlRewriter {
+
+    /**
+     * Default cleanups for the Domino blog HTML, in the order they were always applied.
+     */
+    public static final List<Rule> DEFAULT_RULES = List.of(
+        // Remove <u>. Not supported by Markdown
+        new Rule("remove-underline", "<(/?)u>", ""),
+
+        // Convert <div.well> to <blockquote>
+        new Rule("well-to-blockquote", "<div\\s+class=\"well\">([\\s\\S]*?)</div>", "<blockquote>$1</blockquote>"),
+
+        // This is an issue with the blog posts. Bold lines stick to the previous line.
+        new Rule("bold-after-linebreak", "<strong>((.?<br />)+)", "$1<strong>"),
+
+        new Rule("linebreak-after-heading", "</h([1-6])><br />", "</h$1>"),
+
+        // Multiple linebreaks to two.
+        new Rule("multiple-linebreaks", "(<br />(\\s+)?){3,}", "<br /><br />")
+    );
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * A rewrite rule.
+     *
+     * @param name        short description, used in error messages
+     * @param pattern     regular expression
+     * @param replacement replacement text, {@code $n} refers to the n-th group of the pattern
+     */
+    public record Rule(String name, String pattern, String replacement) {
+
+    }
+
+    private final Pattern[] patterns;
+    private final String[] replacements;
+
+    public HtmlRewriter(List<Rule> rules) {
+        this.patterns = new Pattern[rules.size()];
+        this.replacements = new String[rules.size()];
+
+        for (int i = 0; i < rules.size(); i++) {
+            Rule rule = rules.get(i);
+
+            try {
+                patterns[i] = Pattern.compile(rule.pattern());
+                replacements[i] = StringUtils.defaultString(rule.replacement());
+                checkGroupReferences(replacements[i], patterns[i].matcher("").groupCount());
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid rule '" + rule.name() + "': " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Creates a rewriter with the default rules, followed by the rules in the given JSON file, if any.
+     * The file contains an array of rules, e.g. {@code [{"name": "...", "pattern": "...", "replacement": "..."}]}.
+     *
+     * @param rulesFile path to the JSON file, may be empty
+     */
+    public static HtmlRewriter fromConfiguration(String rulesFile) {
+        List<Rule> rules = new ArrayList<>(DEFAULT_RULES);
+
+        if (StringUtils.isNotEmpty(rulesFile)) {
+            try {
+                rules.addAll(MAPPER.readValue(Path.of(rulesFile).toFile(), new TypeReference<List<Rule>>() {}));
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to read HTML rules from " + rulesFile, e);
+            }
+        }
+
+        return new HtmlRewriter(rules);
+    }
+
+    public String rewrite(CharSequence input) {
+        String content = input.toString();
+
+        for (int i = 0; i < patterns.length; i++) {
+            // Returns the same string without copying if nothing matches
+            content = patterns[i].matcher(content).replaceAll(replacements[i]);
+        }
+
+        return content;
+    }
+
+    /**
+     * {@code Matcher.replaceAll} fails on a missing group only with the first match, so a broken rule is reported when
+     * the rewriter is created instead of in the middle of an export.
+     */
+    private static void checkGroupReferences(String replacement, int groupCount) {
+        for (int i = 0; i < replacement.length(); i++) {
+            char c = replacement.charAt(i);
+
+            if (c == '\\') {
+                i++;
+            } else if (c == '$' && i + 1 < replacement.length() && Character.isDigit(replacement.charAt(i + 1))
+                && replacement.charAt(i + 1) - '0' > groupCount) {
+                throw new IllegalArgumentException("No group " + replacement.charAt(i + 1) + " in the pattern");
+            }
+        }
+    }
+}
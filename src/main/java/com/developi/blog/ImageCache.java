@@ -0,0 +1,177 @@
+package com.developi.blog;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of downloaded images, kept in the image directory between runs.
+ * <p>
+ * For each source URL, we keep the validators sent by the server (ETag and Last-Modified) to revalidate the image with
+ * a conditional request, and the SHA-256 of the content to reuse identical images.
+ * <p>
+ * A sharded export keeps an index per {@link Shard}, merged into the regular index afterwards.
+ */
+public class ImageCache {
+
+    public static final String FILE_NAME = ".image-cache.json";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private final Path imageDir;
+    private final Path indexFile;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    // sha256 -> file name of an image with that content
+    private final Map<String, String> filesByHash = new ConcurrentHashMap<>();
+
+    /**
+     * @param url          source URL, relative to the base URL
+     * @param fileName     file name in the image directory
+     * @param etag         ETag header of the last response, may be null
+     * @param lastModified Last-Modified header of the last response, may be null
+     * @param sha256       SHA-256 of the content
+     */
+    public record Entry(String url, String fileName, String etag, String lastModified, String sha256) {
+
+    }
+
+    private ImageCache(Path imageDir, Path indexFile) {
+        this.imageDir = imageDir;
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Loads the index from the image directory. Entries of deleted files are dropped.
+     */
+    public static ImageCache load(Path imageDir) {
+        return load(imageDir, Shard.ALL);
+    }
+
+    /**
+     * Loads the index of a shard from the image directory. The first run of a shard starts with the regular index.
+     */
+    public static ImageCache load(Path imageDir, Shard shard) {
+        ImageCache cache = new ImageCache(imageDir, imageDir.resolve(shard.fileName(FILE_NAME)));
+
+        cache.read(Files.exists(cache.indexFile) ? cache.indexFile : imageDir.resolve(FILE_NAME));
+
+        return cache;
+    }
+
+    private void read(Path file) {
+        if (Files.exists(file)) {
+            try {
+                Map<String, Entry> saved = MAPPER.readValue(file.toFile(), new TypeReference<Map<String, Entry>>() {});
+
+                saved.values()
+                     .stream()
+                     .filter(entry -> Files.exists(imageDir.resolve(entry.fileName())))
+                     .forEach(this::put);
+            } catch (IOException e) {
+                System.err.println("Unable to read the image cache, images will be downloaded again: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Merges the indexes of all shards in the image directory into the regular index. Each shard starts with a copy of
+     * the regular index, so only the entries a shard changed are taken from it.
+     *
+     * @return number of merged shards
+     */
+    public static int mergeShards(Path imageDir) {
+        Map<Shard, Path> shardFiles = Shard.findFiles(imageDir, FILE_NAME);
+
+        if (shardFiles.isEmpty()) {
+            return 0;
+        }
+
+        ImageCache merged = load(imageDir);
+        Map<String, Entry> regular = Map.copyOf(merged.entries);
+
+        for (Path file : shardFiles.values()) {
+            ImageCache part = new ImageCache(imageDir, file);
+            part.read(file);
+
+            part.entries.values()
+                        .stream()
+                        .filter(entry -> !entry.equals(regular.get(entry.url())))
+                        .forEach(merged::put);
+        }
+
+        merged.save();
+
+        return shardFiles.size();
+    }
+
+    /**
+     * Writes the index into a temporary file first, so an interrupted run keeps the previous index.
+     */
+    public void save() {
+        Path tempFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+
+        try {
+            MAPPER.writeValue(tempFile.toFile(), new TreeMap<>(entries));
+            OutputWriter.moveIntoPlace(tempFile, indexFile);
+        } catch (IOException e) {
+            System.err.println("Error writing image cache: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the cache entry for the URL, if the file still exists
+     */
+    public Optional<Entry> get(String url) {
+        return Optional.ofNullable(entries.get(url))
+                       .filter(entry -> Files.exists(imageDir.resolve(entry.fileName())));
+    }
+
+    public void put(Entry entry) {
+        entries.put(entry.url(), entry);
+        filesByHash.put(entry.sha256(), entry.fileName());
+    }
+
+    /**
+     * Places an image with the given content hash at the target path without writing the content, if we already have
+     * an identical image. The file is hard-linked, or copied where links are not supported.
+     *
+     * @return true if an identical image is found and placed to the target
+     */
+    public boolean reuseIdentical(String sha256, Path target) throws IOException {
+        String existingName = filesByHash.get(sha256);
+
+        if (existingName == null) {
+            return false;
+        }
+
+        Path existing = imageDir.resolve(existingName);
+
+        if (!Files.exists(existing)) {
+            return false;
+        }
+
+        if (existing.equals(target)) {
+            return true;
+        }
+
+        Files.deleteIfExists(target);
+
+        try {
+            Files.createLink(target, existing);
+        } catch (UnsupportedOperationException | IOException e) {
+            Files.copy(existing, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,488 @@
+package com.developi.blog;
+
+import com.hcl.domino.commons.util.MimeTypes;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Downloads blog images in the background.
+ * <p>
+ * The file extension depends on the Content-Type of the response, so the final file name is not known when the
+ * Markdown link is created. {@link #request(String, String)} returns a placeholder file name immediately and starts
+ * the download. {@link #resolvePlaceholders(StringBuilder, Collection)} replaces placeholders with the actual file names before the post
+ * is written.
+ * <p>
+ * Each URL is downloaded once per run, no matter how many times it's referenced. At most {@code concurrency} downloads
+ * are in flight at a time, the rest wait in a queue.
+ * <p>
+ * Images from previous runs are revalidated with conditional requests using the {@link ImageCache}, so unchanged
+ * images are neither transferred nor written again.
+ * <p>
+ * Transient errors (I/O errors, timeouts, HTTP 429 and 5xx) are retried with exponential backoff. The download keeps
+ * its slot while it waits.
+ * <p>
+ * Images already copied out of the note ({@link #request(String, String, EmbeddedImage)}) are stored without any
+ * HTTP request. Downloads are only the fallback for images which couldn't be mapped to an attachment.
+ * <p>
+ * With an {@link ImageOptimizer}, saved images are optimised in the background and placeholders resolve to the
+ * optimised file.
+ * <p>
+ * An image which can't be downloaded doesn't stop the post: its link keeps pointing to the original URL.
+ */
+public class ImageDownloader implements ConversionContext.ImageSink {
+
+    // Placeholder file extension until the Content-Type is known
+    static final String PLACEHOLDER_EXTENSION = ".img-pending";
+
+    // The path before the placeholder is only replaced if the image is linked to its original URL
+    private static final Pattern PLACEHOLDER_PATTERN = Pattern.compile("([^\\s()\\[\\]<>\"']*/)?([\\w.\\-]+?)" + Pattern.quote(PLACEHOLDER_EXTENSION));
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(60);
+
+    // Backoff before the first retry, doubled for each further retry
+    private static final long RETRY_BASE_MILLIS = 500;
+    private static final long RETRY_MAX_MILLIS = 30_000;
+
+    private final HttpClient client;
+    private final String baseUrl;
+    private final Path targetDir;
+    private final int concurrency;
+    private final int retries;
+    private final ImageCache cache;
+    private final StreamingBodyHandler bodyHandler;
+    private final ImageOptimizer optimizer;
+    private final ExportMetrics metrics;
+
+    // In-flight and completed downloads, keyed by URL and by base file name
+    private final Map<String, CompletableFuture<Path>> downloads = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Path>> downloadsByFileName = new ConcurrentHashMap<>();
+    private final Map<String, String> urlsByFileName = new ConcurrentHashMap<>();
+
+    private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger running = new AtomicInteger();
+
+    /**
+     * @param client      HTTP client to use
+     * @param baseUrl     prefix for relative image URLs, e.g. https://www.example.com/blog.nsf/dx/
+     * @param targetDir   directory to save images
+     * @param cache       images from previous runs, see {@link ImageCache#load(Path, Shard)}
+     * @param concurrency maximum number of downloads in flight
+     * @param maxBytes    maximum size of an image
+     * @param retries     number of retries after transient errors
+     * @param optimizer   optimises saved images before they are linked, may be null
+     * @param metrics     records download latency, bytes and cache hits
+     */
+    public ImageDownloader(HttpClient client, String baseUrl, Path targetDir, ImageCache cache, int concurrency, long maxBytes, int retries,
+                           ImageOptimizer optimizer, ExportMetrics metrics) {
+        this.client = client;
+        this.baseUrl = baseUrl;
+        this.targetDir = targetDir;
+        this.concurrency = Math.max(1, concurrency);
+        this.retries = Math.max(0, retries);
+        this.cache = cache;
+        this.bodyHandler = new StreamingBodyHandler(targetDir, maxBytes);
+        this.optimizer = optimizer;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Starts downloading the image unless it's already requested, and returns immediately.
+     *
+     * @param imageUrl     image URL relative to the base URL
+     * @param baseFileName the filename (without extension) to use when saving locally
+     * @return placeholder file name to be used in the Markdown link
+     */
+    @Override
+    public String request(String imageUrl, String baseFileName) {
+        CompletableFuture<Path> download = downloads.computeIfAbsent(imageUrl, url -> {
+            CompletableFuture<Path> future = new CompletableFuture<>();
+
+            schedule(() -> {
+                long startNanos = System.nanoTime();
+
+                start(url, baseFileName).whenComplete((path, t) -> {
+                    running.decrementAndGet();
+                    startWaiting();
+
+                    metrics.record(ExportMetrics.Stage.IMAGE_DOWNLOAD, null, System.nanoTime() - startNanos);
+
+                    if (t != null) {
+                        System.out.println("Failed to download image: " + url);
+                        metrics.fail(ExportMetrics.Counter.IMAGES_FAILED, url, t);
+                        future.completeExceptionally(t);
+                    } else {
+                        future.complete(path);
+                    }
+                });
+            });
+
+            return optimized(future);
+        });
+
+        downloadsByFileName.putIfAbsent(baseFileName, download);
+        urlsByFileName.putIfAbsent(baseFileName, imageUrl);
+
+        return baseFileName + PLACEHOLDER_EXTENSION;
+    }
+
+    /**
+     * Stores an image copied out of the note instead of downloading it. Falls back to {@link #request(String, String)}
+     * if there is no copy or it can't be stored. The file is moved into place right away, otherwise the temporary file
+     * is left to the caller.
+     *
+     * @param imageUrl     image URL relative to the base URL
+     * @param baseFileName the filename (without extension) to use when saving locally
+     * @param image        image copied out of the note, may be null
+     * @return placeholder file name to be used in the Markdown link
+     */
+    public String request(String imageUrl, String baseFileName, EmbeddedImage image) {
+        if (image == null) {
+            return request(imageUrl, baseFileName);
+        }
+
+        CompletableFuture<Path> result = new CompletableFuture<>();
+        CompletableFuture<Path> existing = downloads.putIfAbsent(imageUrl, result);
+
+        if (existing == null) {
+            CompletableFuture<Path> stored;
+
+            try {
+                stored = optimized(CompletableFuture.completedFuture(storeImage(imageUrl, baseFileName, image)));
+                metrics.increment(ExportMetrics.Counter.IMAGES_FROM_NOTE);
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Failed to store image from the note, downloading it: " + imageUrl + " (" + e.getMessage() + ")");
+
+                // Others may already wait for the result, it completes with the download
+                downloads.remove(imageUrl, result);
+                request(imageUrl, baseFileName);
+                stored = downloads.get(imageUrl);
+            }
+
+            stored.whenComplete((path, t) -> {
+                if (t != null) {
+                    result.completeExceptionally(t);
+                } else {
+                    result.complete(path);
+                }
+            });
+        }
+
+        downloadsByFileName.putIfAbsent(baseFileName, existing == null ? result : existing);
+        urlsByFileName.putIfAbsent(baseFileName, imageUrl);
+
+        return baseFileName + PLACEHOLDER_EXTENSION;
+    }
+
+    /**
+     * Replaces image placeholders with actual file names in place, waiting for the downloads if needed. Images which
+     * could not be downloaded are linked to their original URL instead, the failures are already reported.
+     *
+     * @param content    text containing placeholders
+     * @param imageFiles collects file names of the images in the content
+     * @return number of images linked to their original URL
+     */
+    public int resolvePlaceholders(StringBuilder content, Collection<String> imageFiles) {
+        Matcher matcher = PLACEHOLDER_PATTERN.matcher(content);
+        int from = 0;
+        int failed = 0;
+
+        // find(from) resets the matcher, so it sees the content after each replacement
+        while (from < content.length() && matcher.find(from)) {
+            String baseFileName = matcher.group(2);
+            CompletableFuture<Path> download = downloadsByFileName.get(baseFileName);
+
+            if (download == null) {
+                from = matcher.end();
+                continue;
+            }
+
+            Path file = download.handle((path, t) -> path).join();
+
+            if (file == null) {
+                String url = baseUrl + urlsByFileName.get(baseFileName);
+
+                content.replace(matcher.start(), matcher.end(), url);
+                from = matcher.start() + url.length();
+                failed++;
+                continue;
+            }
+
+            String fileName = file.getFileName().toString();
+            imageFiles.add(fileName);
+
+            if (optimizer != null) {
+                imageFiles.addAll(optimizer.companions(fileName));
+            }
+
+            content.replace(matcher.start(2), matcher.end(), fileName);
+            from = matcher.start(2) + fileName.length();
+        }
+
+        return failed;
+    }
+
+    /**
+     * Waits until all requested downloads (and optimisations) are finished and saves the image cache. Failed downloads
+     * are already reported.
+     *
+     * @return number of failed downloads
+     */
+    public int awaitAll() {
+        List<CompletableFuture<Path>> all = List.copyOf(downloads.values());
+
+        int failed = (int) all.stream()
+                              .map(f -> f.handle((path, t) -> t))
+                              .map(CompletableFuture::join)
+                              .filter(t -> t != null)
+                              .count();
+
+        cache.save();
+
+        if (optimizer != null) {
+            optimizer.save();
+        }
+
+        return failed;
+    }
+
+    /**
+     * @return future for the image to link to: the optimised one if there is an optimiser, otherwise the saved one
+     */
+    private CompletableFuture<Path> optimized(CompletableFuture<Path> saved) {
+        return optimizer == null ? saved : saved.thenCompose(optimizer::optimize);
+    }
+
+    private void schedule(Runnable start) {
+        waiting.add(start);
+        startWaiting();
+    }
+
+    /**
+     * Starts queued downloads while there are free slots.
+     */
+    private void startWaiting() {
+        while (!waiting.isEmpty()) {
+            int current = running.get();
+
+            if (current >= concurrency) {
+                return;
+            }
+
+            if (running.compareAndSet(current, current + 1)) {
+                Runnable next = waiting.poll();
+
+                if (next == null) {
+                    running.decrementAndGet();
+                } else {
+                    next.run();
+                }
+            }
+        }
+    }
+
+    private CompletableFuture<Path> start(String imageUrl, String baseFileName) {
+        try {
+            return downloadImageUrl(imageUrl, baseFileName);
+        } catch (RuntimeException e) {
+            // e.g. invalid URL
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Downloads an image from the given URL, inspects its Content-Type to decide on an extension,
+     * and writes it into the target directory with the given base filename.
+     *
+     * @param imageUrl     the URL of the image to download
+     * @param baseFileName the filename (without extension) to use when saving locally
+     * @return future for the path to the saved file
+     */
+    private CompletableFuture<Path> downloadImageUrl(String imageUrl, String baseFileName) {
+        // 1. Build the GET request for the image URL. Revalidate if we have it from a previous run.
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
+                                                        .uri(URI.create(baseUrl + imageUrl))
+                                                        .timeout(REQUEST_TIMEOUT)
+                                                        .GET();
+
+        Optional<ImageCache.Entry> cached = cache.get(imageUrl);
+
+        cached.ifPresent(entry -> {
+            if (entry.etag() != null) {
+                requestBuilder.header("If-None-Match", entry.etag());
+            }
+            if (entry.lastModified() != null) {
+                requestBuilder.header("If-Modified-Since", entry.lastModified());
+            }
+        });
+
+        // 2. Send the request, streaming the response body into a temporary file
+        return send(requestBuilder.build(), imageUrl, 0)
+                     .thenApply(response -> {
+                         try {
+                             return saveImage(imageUrl, response, baseFileName, cached.orElse(null));
+                         } catch (IOException e) {
+                             throw new CompletionException(e);
+                         }
+                     });
+    }
+
+    /**
+     * Stores an image copied out of the note, with the extension of its stored MIME type.
+     */
+    private Path storeImage(String imageUrl, String baseFileName, EmbeddedImage image) throws IOException {
+        String extension = MimeTypes.getExtension(image.mimeType());
+
+        if (StringUtils.isEmpty(extension)) {
+            throw new IOException("Unknown MIME type of embedded image: " + image.mimeType());
+        }
+
+        Path outputFilePath = targetDir.resolve(baseFileName + "." + extension);
+
+        placeImage(image.tempFile(), image.sha256(), outputFilePath, cache.get(imageUrl).orElse(null));
+
+        // No validators, a later download of the same URL is unconditional
+        cache.put(new ImageCache.Entry(imageUrl, outputFilePath.getFileName().toString(), null, null, image.sha256()));
+
+        return outputFilePath;
+    }
+
+    /**
+     * Sends the request, retrying after transient errors.
+     *
+     * @param retry number of retries so far
+     */
+    private CompletableFuture<HttpResponse<StreamingBodyHandler.DownloadedFile>> send(HttpRequest request, String imageUrl, int retry) {
+        return client.sendAsync(request, bodyHandler)
+                     .handle((response, t) -> {
+                         String reason = transientError(response, t);
+
+                         if (reason == null || retry >= retries) {
+                             return t == null ? CompletableFuture.completedFuture(response)
+                                 : CompletableFuture.<HttpResponse<StreamingBodyHandler.DownloadedFile>>failedFuture(t);
+                         }
+
+                         long delay = retryDelay(response, retry);
+                         System.out.println("Retrying image in " + delay + " ms (" + reason + "): " + imageUrl);
+                         metrics.increment(ExportMetrics.Counter.IMAGES_RETRIED);
+
+                         return CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS))
+                                                 .thenCompose(ignored -> send(request, imageUrl, retry + 1));
+                     })
+                     .thenCompose(Function.identity());
+    }
+
+    /**
+     * @return description of the error if it's worth a retry, otherwise null
+     */
+    private static String transientError(HttpResponse<?> response, Throwable t) {
+        if (t != null) {
+            Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+
+            return cause instanceof IOException && !(cause instanceof StreamingBodyHandler.TooLargeException)
+                ? cause.getClass().getSimpleName() : null;
+        }
+
+        int statusCode = response.statusCode();
+
+        return statusCode == 429 || statusCode >= 500 ? "HTTP status " + statusCode : null;
+    }
+
+    /**
+     * Exponential backoff with jitter. A Retry-After header in seconds is respected, up to the maximum delay.
+     */
+    private static long retryDelay(HttpResponse<?> response, int retry) {
+        long backoff = Math.min(RETRY_BASE_MILLIS << Math.min(retry, 16), RETRY_MAX_MILLIS);
+        long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+
+        if (response != null) {
+            String retryAfter = response.headers().firstValue("Retry-After").orElse("");
+
+            if (StringUtils.isNumeric(retryAfter)) {
+                delay = Math.max(delay, Math.min(Long.parseLong(retryAfter) * 1000, RETRY_MAX_MILLIS));
+            }
+        }
+
+        return delay;
+    }
+
+    private Path saveImage(String imageUrl, HttpResponse<StreamingBodyHandler.DownloadedFile> response, String baseFileName,
+                           ImageCache.Entry cached) throws IOException {
+        // 3. Check the status code (200 OK expected, 304 if the cached image is still valid)
+        int statusCode = response.statusCode();
+        if (statusCode == 304 && cached != null) {
+            metrics.increment(ExportMetrics.Counter.IMAGES_NOT_MODIFIED);
+            return targetDir.resolve(cached.fileName());
+        }
+        if (statusCode != 200) {
+            throw new IOException("Failed to download image: HTTP status " + statusCode);
+        }
+
+        StreamingBodyHandler.DownloadedFile downloaded = response.body();
+
+        metrics.increment(ExportMetrics.Counter.IMAGES_DOWNLOADED);
+        metrics.add(ExportMetrics.Counter.IMAGE_BYTES, downloaded.size());
+
+        try {
+            // 4. Inspect the Content-Type header to determine the extension
+            String contentType = response.headers()
+                                         .firstValue("Content-Type")
+                                         .orElseThrow(() -> new IOException("No Content-Type header in response"));
+
+            // If contentType has parameters (e.g. "image/png; charset=UTF-8"), we strip them off.
+            String extension = MimeTypes.getExtension(contentType.split(";")[0].trim());
+
+            // 5. Build the full path: outputDir / (baseFileName + "." + extension)
+            Path outputFilePath = targetDir.resolve(baseFileName + "." + extension);
+
+            placeImage(downloaded.tempFile(), downloaded.sha256(), outputFilePath, cached);
+
+            cache.put(new ImageCache.Entry(
+                imageUrl,
+                outputFilePath.getFileName().toString(),
+                response.headers().firstValue("ETag").orElse(null),
+                response.headers().firstValue("Last-Modified").orElse(null),
+                downloaded.sha256()
+            ));
+
+            return outputFilePath;
+        } finally {
+            // No-op if already moved
+            downloaded.delete();
+        }
+    }
+
+    /**
+     * Moves the file into place unless the same content is already there or in another file.
+     */
+    private void placeImage(Path tempFile, String sha256, Path outputFilePath, ImageCache.Entry cached) throws IOException {
+        boolean unchanged = cached != null && sha256.equals(cached.sha256()) && Files.exists(outputFilePath);
+
+        if (unchanged || cache.reuseIdentical(sha256, outputFilePath)) {
+            metrics.increment(ExportMetrics.Counter.IMAGES_REUSED);
+        } else {
+            OutputWriter.moveIntoPlace(tempFile, outputFilePath);
+        }
+    }
+}
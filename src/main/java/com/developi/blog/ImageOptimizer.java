@@ -0,0 +1,457 @@
+package com.developi.blog;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Optimises saved images with the JDK's ImageIO: caps the width, recompresses and writes smaller variants.
+ * <p>
+ * Only the pixels are written, so metadata (EXIF, text chunks, colour profiles) is dropped. PNG images stay PNG with
+ * maximum compression, JPEG images are recompressed with the given quality. Other formats (e.g. GIF, which may be
+ * animated) are linked as they are. The original file is kept, the optimised image is written next to it as
+ * {@code {name}-{width}w.{ext}}, and so are the variants for narrower widths.
+ * <p>
+ * Decoding and encoding is CPU-bound, so it runs on a pool with a thread per core. Results are indexed by the SHA-256
+ * of the original content in the image directory, so an image is never optimised twice with the same settings. A sharded
+ * export keeps an index per {@link Shard}.
+ */
+public class ImageOptimizer {
+
+    public static final String FILE_NAME = ".image-optimized.json";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private final Path imageDir;
+    private final Path indexFile;
+    private final int maxWidth;
+    private final List<Integer> variantWidths;
+    private final float jpegQuality;
+    private final ExecutorService pool;
+    private final ExportMetrics metrics;
+
+    // Settings the index is valid for, it's discarded when they change
+    private final String settings;
+
+    // sha256 of the original -> optimised image
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<>();
+
+    // Linked file name -> originals and variants belonging to it, to clean up with the post
+    private final Map<String, Set<String>> companions = new ConcurrentHashMap<>();
+
+    /**
+     * @param fileName file name of the optimised image, null if the original is smaller
+     * @param variants file names of the narrower variants
+     */
+    public record Entry(String fileName, List<String> variants) {
+
+    }
+
+    /**
+     * Saved index: the settings and the entries by content hash.
+     */
+    record Index(String settings, Map<String, Entry> entries) {
+
+    }
+
+    /**
+     * @param imageDir      directory of the images
+     * @param shard         shard of the export, which keeps its own index
+     * @param maxWidth      maximum width of the optimised image, wider images are scaled down
+     * @param variantWidths widths of the additional variants, only the ones narrower than the image are written
+     * @param jpegQuality   compression quality of JPEG images, 0..1
+     * @param pool          runs the optimisation, see {@link #newPool(int)}
+     * @param metrics       records the time spent and the bytes saved
+     */
+    public ImageOptimizer(Path imageDir, Shard shard, int maxWidth, List<Integer> variantWidths, float jpegQuality, ExecutorService pool,
+                          ExportMetrics metrics) {
+        this.imageDir = imageDir;
+        this.indexFile = imageDir.resolve(shard.fileName(FILE_NAME));
+        this.maxWidth = Math.max(1, maxWidth);
+        this.variantWidths = variantWidths.stream().filter(width -> width > 0).distinct().sorted().toList();
+        this.jpegQuality = Math.min(1f, Math.max(0f, jpegQuality));
+        this.pool = pool;
+        this.metrics = metrics;
+        this.settings = "maxWidth=" + this.maxWidth + ";variants=" + this.variantWidths + ";jpegQuality=" + this.jpegQuality;
+
+        load();
+    }
+
+    /**
+     * @return pool of daemon threads, shared by all blogs of a run
+     */
+    public static ExecutorService newPool(int threads) {
+        AtomicInteger count = new AtomicInteger();
+
+        return Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "image-optimizer-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Loads the index. The first run of a shard starts with the regular index.
+     */
+    private void load() {
+        Path file = Files.exists(indexFile) ? indexFile : imageDir.resolve(FILE_NAME);
+
+        if (!Files.exists(file)) {
+            return;
+        }
+
+        try {
+            Index index = MAPPER.readValue(file.toFile(), Index.class);
+
+            if (!settings.equals(index.settings())) {
+                System.out.println("Image optimisation settings changed, images will be optimised again.");
+                return;
+            }
+
+            index.entries().forEach((sha256, entry) -> {
+                if (isComplete(entry)) {
+                    entries.put(sha256, entry);
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Unable to read the image optimisation index, images will be optimised again: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Merges the indexes of all shards in the image directory into the regular index. Entries are valid for the
+     * settings they are optimised with, so only indexes with the same settings as the last shard are merged. Each shard
+     * starts with a copy of the regular index, so only the entries a shard changed are taken from it.
+     *
+     * @return number of merged shards
+     */
+    public static int mergeShards(Path imageDir) {
+        Map<Shard, Path> shardFiles = Shard.findFiles(imageDir, FILE_NAME);
+
+        if (shardFiles.isEmpty()) {
+            return 0;
+        }
+
+        Path regularFile = imageDir.resolve(FILE_NAME);
+        Index regular = Files.exists(regularFile) ? readIndex(regularFile) : null;
+
+        List<Index> shardIndexes = new ArrayList<>();
+        for (Path file : shardFiles.values()) {
+            Index index = readIndex(file);
+
+            if (index != null) {
+                shardIndexes.add(index);
+            }
+        }
+
+        if (shardIndexes.isEmpty()) {
+            return 0;
+        }
+
+        String settings = shardIndexes.get(shardIndexes.size() - 1).settings();
+        Map<String, Entry> regularEntries = regular != null && settings.equals(regular.settings()) ? regular.entries() : Map.of();
+        Map<String, Entry> merged = new TreeMap<>(regularEntries);
+
+        for (Index index : shardIndexes) {
+            if (settings.equals(index.settings())) {
+                index.entries().forEach((sha256, entry) -> {
+                    if (!entry.equals(regularEntries.get(sha256))) {
+                        merged.put(sha256, entry);
+                    }
+                });
+            }
+        }
+
+        try {
+            writeIndex(regularFile, new Index(settings, merged));
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing image optimisation index", e);
+        }
+
+        return shardFiles.size();
+    }
+
+    /**
+     * @return the index, null if it can't be read
+     */
+    private static Index readIndex(Path file) {
+        try {
+            return MAPPER.readValue(file.toFile(), Index.class);
+        } catch (IOException e) {
+            System.err.println("Unable to read the image optimisation index " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public void save() {
+        try {
+            writeIndex(indexFile, new Index(settings, new TreeMap<>(entries)));
+        } catch (IOException e) {
+            System.err.println("Error writing image optimisation index: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the index into a temporary file first, so an interrupted run keeps the previous index.
+     */
+    private static void writeIndex(Path file, Index index) throws IOException {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+
+        MAPPER.writeValue(tempFile.toFile(), index);
+        OutputWriter.moveIntoPlace(tempFile, file);
+    }
+
+    /**
+     * Optimises the saved image in the background. Never fails: if the image can't be optimised, the original is used.
+     *
+     * @param original image as saved in the image directory
+     * @return future for the image to link to, the optimised one or the original
+     */
+    public CompletableFuture<Path> optimize(Path original) {
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            String originalName = original.getFileName().toString();
+
+            try {
+                byte[] content = Files.readAllBytes(original);
+                Entry entry = optimize(Hashing.sha256Hex(content), content, originalName);
+
+                Path linked = entry.fileName() == null ? original : imageDir.resolve(entry.fileName());
+                addCompanions(linked.getFileName().toString(), originalName, entry);
+
+                return linked;
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error optimising image " + originalName + ", using the original: " + e.getMessage());
+                return original;
+            } finally {
+                metrics.record(ExportMetrics.Stage.IMAGE_OPTIMIZE, null, System.nanoTime() - start);
+            }
+        }, pool);
+    }
+
+    /**
+     * @return file names which belong to the linked image: its original(s) and variants
+     */
+    public Set<String> companions(String linkedFileName) {
+        return companions.getOrDefault(linkedFileName, Set.of());
+    }
+
+    private void addCompanions(String linkedFileName, String originalName, Entry entry) {
+        Set<String> files = companions.computeIfAbsent(linkedFileName, name -> ConcurrentHashMap.newKeySet());
+
+        files.add(originalName);
+        files.addAll(entry.variants());
+        files.remove(linkedFileName);
+    }
+
+    /**
+     * Returns the indexed result for the content, or optimises it. Identical content in flight is optimised once.
+     */
+    private Entry optimize(String sha256, byte[] content, String originalName) throws IOException {
+        Entry entry = entries.get(sha256);
+
+        if (entry != null && isComplete(entry)) {
+            return entry;
+        }
+
+        CompletableFuture<Entry> created = new CompletableFuture<>();
+        CompletableFuture<Entry> existing = inFlight.putIfAbsent(sha256, created);
+
+        if (existing != null) {
+            return existing.join();
+        }
+
+        try {
+            Entry transcoded = transcode(content, originalName);
+
+            // Files of an earlier content with the same name are overwritten now
+            entries.values().removeIf(previous -> !disjoint(previous, transcoded));
+            entries.put(sha256, transcoded);
+            entry = transcoded;
+            created.complete(entry);
+
+            return entry;
+        } catch (IOException | RuntimeException e) {
+            created.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(sha256);
+        }
+    }
+
+    private static boolean disjoint(Entry a, Entry b) {
+        Set<String> files = new TreeSet<>(a.variants());
+        if (a.fileName() != null) {
+            files.add(a.fileName());
+        }
+
+        return (b.fileName() == null || !files.contains(b.fileName())) && b.variants().stream().noneMatch(files::contains);
+    }
+
+    private boolean isComplete(Entry entry) {
+        return (entry.fileName() == null || Files.exists(imageDir.resolve(entry.fileName())))
+               && entry.variants().stream().allMatch(variant -> Files.exists(imageDir.resolve(variant)));
+    }
+
+    private Entry transcode(byte[] content, String originalName) throws IOException {
+        String format;
+        BufferedImage image;
+
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(content))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+
+            if (!readers.hasNext()) {
+                return new Entry(null, List.of());
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                format = reader.getFormatName().toLowerCase(Locale.ROOT);
+
+                if (!format.equals("png") && !format.equals("jpeg")) {
+                    return new Entry(null, List.of());
+                }
+
+                reader.setInput(input, true, true);
+                image = reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+
+        String extension = format.equals("jpeg") ? "jpg" : "png";
+        String stem = StringUtils.substringBeforeLast(originalName, ".");
+        int width = Math.min(image.getWidth(), maxWidth);
+
+        // The image itself, scaled down if needed. If it's not smaller, the original is linked.
+        BufferedImage scaled = scale(image, width);
+        byte[] optimized = encode(scaled, format);
+        String fileName = null;
+
+        if (width < image.getWidth() || optimized.length < content.length) {
+            fileName = stem + "-" + width + "w." + extension;
+            writeFile(fileName, optimized);
+            metrics.increment(ExportMetrics.Counter.IMAGES_OPTIMIZED);
+            metrics.add(ExportMetrics.Counter.IMAGE_BYTES_SAVED, Math.max(0, content.length - optimized.length));
+        }
+
+        List<String> variants = new ArrayList<>();
+        for (int variantWidth : variantWidths) {
+            if (variantWidth >= width) {
+                break;
+            }
+
+            String variantName = stem + "-" + variantWidth + "w." + extension;
+            writeFile(variantName, encode(scale(scaled, variantWidth), format));
+            variants.add(variantName);
+        }
+
+        return new Entry(fileName, List.copyOf(variants));
+    }
+
+    /**
+     * Scales down to the width in steps of at most a half, which keeps the quality close to area averaging.
+     */
+    private static BufferedImage scale(BufferedImage image, int width) {
+        BufferedImage current = image;
+
+        while (current.getWidth() > width) {
+            int nextWidth = Math.max(width, current.getWidth() / 2);
+            int nextHeight = Math.max(1, (int) Math.round((double) image.getHeight() * nextWidth / image.getWidth()));
+            int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+
+            BufferedImage next = new BufferedImage(nextWidth, nextHeight, type);
+            Graphics2D graphics = next.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                graphics.drawImage(current, 0, 0, nextWidth, nextHeight, null);
+            } finally {
+                graphics.dispose();
+            }
+
+            current = next;
+        }
+
+        return current;
+    }
+
+    private byte[] encode(BufferedImage image, String format) throws IOException {
+        // JPEG has no alpha channel, and the JDK writer rejects images with one
+        if (format.equals("jpeg") && image.getColorModel().hasAlpha()) {
+            BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = rgb.createGraphics();
+            try {
+                graphics.drawImage(image, 0, 0, Color.WHITE, null);
+            } finally {
+                graphics.dispose();
+            }
+            image = rgb;
+        }
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(bytes)) {
+            writer.setOutput(output);
+
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                // For PNG, 0 is the strongest deflate level, still lossless
+                param.setCompressionQuality(format.equals("jpeg") ? jpegQuality : 0f);
+            }
+
+            // No metadata, only the pixels
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private void writeFile(String fileName, byte[] content) throws IOException {
+        Path target = imageDir.resolve(fileName);
+        Path tempFile = target.resolveSibling("." + fileName + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+
+        try {
+            Files.write(tempFile, content, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            OutputWriter.moveIntoPlace(tempFile, target);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+}
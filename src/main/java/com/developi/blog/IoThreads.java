@@ -0,0 +1,63 @@
+package com.developi.blog;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Threads for I/O-bound work: writing files and handling image downloads.
+ * <p>
+ * With virtual threads enabled and a JDK that has them (21+), these are virtual threads, so blocked I/O costs next to
+ * nothing. The project builds for Java 17, so virtual threads are created through reflection. On older JDKs, or when
+ * disabled, these are regular platform threads.
+ * <p>
+ * Domino API calls never run on these threads. They stay on platform threads initialised with their own Domino thread
+ * context (see {@link com.developi.jnx.utils.DominoRunner#runInDominoThread}).
+ */
+public final class IoThreads {
+
+    private final ThreadFactory virtualFactory;
+
+    private IoThreads(ThreadFactory virtualFactory) {
+        this.virtualFactory = virtualFactory;
+    }
+
+    /**
+     * @param useVirtualThreads use virtual threads, if the JDK has them
+     */
+    public static IoThreads create(boolean useVirtualThreads) {
+        if (!useVirtualThreads) {
+            return new IoThreads(null);
+        }
+
+        try {
+            // Thread.ofVirtual().name("io-virtual-", 0).factory()
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "io-virtual-", 0L);
+
+            return new IoThreads((ThreadFactory) builderClass.getMethod("factory").invoke(builder));
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Virtual threads are not available on Java " + Runtime.version().feature() + ", using platform threads.");
+            return new IoThreads(null);
+        }
+    }
+
+    public boolean isVirtual() {
+        return virtualFactory != null;
+    }
+
+    public ThreadFactory factory() {
+        return virtualFactory != null ? virtualFactory : Thread::new;
+    }
+
+    /**
+     * @return executor starting a virtual thread per task, or null for the default executor of the caller
+     */
+    public Executor executor() {
+        if (virtualFactory == null) {
+            return null;
+        }
+
+        return task -> virtualFactory.newThread(task).start();
+    }
+}
@@ -0,0 +1,145 @@
+package com.developi.blog;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Reads posts from a JSON-lines file, one post per line, so the converter can run without a Domino runtime:
+ * <pre>
+ * {"unid": "...", "pageName": "my-post.htm", "title": "My Post", "date": "2020-01-02T03:04:05Z",
+ *  "lastModified": "2020-01-03T00:00:00Z", "category": "Domino", "tags": ["java"], "html": "..."}
+ * </pre>
+ * Dates are ISO-8601 with offset. The file is read with a streaming parser, one post at a time. The first pass skips
+ * the HTML content without materialising it. A post with invalid values (e.g. an unparseable date) is reported as
+ * failed with its line number, the others are read on.
+ */
+public class JsonLinesPostSource implements PostSource {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final Path file;
+    private final ExportMetrics metrics;
+
+    /**
+     * @param metrics records posts which can't be read
+     */
+    public JsonLinesPostSource(Path file, ExportMetrics metrics) {
+        this.file = file;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void forEachSummary(Consumer<PostSummary> consumer) {
+        read(false, post -> consumer.accept(new PostSummary(post.unid(), post.pageName(), post.date(), post.lastModified())));
+    }
+
+    @Override
+    public void forEachPost(Collection<PostSummary> posts, ChangeFilter filter, Consumer<BlogPost> consumer) {
+        Set<String> wanted = posts.stream().map(PostSummary::unid).collect(Collectors.toSet());
+
+        read(true, post -> {
+            if (wanted.contains(post.unid()) && filter.needsExport(post.unid(), post.lastModified())) {
+                consumer.accept(post);
+            }
+        });
+    }
+
+    private void read(boolean withContent, Consumer<BlogPost> consumer) {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+             JsonParser parser = JSON_FACTORY.createParser(reader)) {
+
+            // Root-level objects, separated by line breaks
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                int line = parser.currentLocation().getLineNr();
+                List<String> errors = new ArrayList<>();
+                BlogPost post = readPost(parser, withContent, errors);
+
+                if (errors.isEmpty() && (StringUtils.isAnyEmpty(post.unid(), post.pageName()) || post.date() == null)) {
+                    errors.add("unid, pageName and date are required");
+                }
+
+                if (!errors.isEmpty()) {
+                    // Not mapped in the first pass, so not wanted in the second one either
+                    if (!withContent) {
+                        String item = StringUtils.defaultIfEmpty(post.pageName(), "line " + line);
+                        System.err.println("Skipping the post at line " + line + " of " + file + ": " + String.join(", ", errors));
+                        metrics.fail(ExportMetrics.Counter.POSTS_FAILED, item, "Line " + line + ": " + String.join(", ", errors));
+                    }
+                    continue;
+                }
+
+                consumer.accept(post);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading posts from " + file, e);
+        }
+    }
+
+    /**
+     * Reads the fields of the current object. Invalid values are added to the errors, the rest of the object is read
+     * anyway, so the parser is at the next post.
+     */
+    private static BlogPost readPost(JsonParser parser, boolean withContent, List<String> errors) throws IOException {
+        String unid = null, pageName = null, title = "", category = "", html = "";
+        OffsetDateTime date = null;
+        long lastModified = 0;
+        List<String> tags = new ArrayList<>();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+
+            switch (field) {
+                case "unid" -> unid = parser.getValueAsString();
+                case "pageName" -> pageName = parser.getValueAsString();
+                case "title" -> title = parser.getValueAsString("");
+                case "category" -> category = parser.getValueAsString("");
+                case "date" -> date = parseDate(field, parser.getValueAsString(), errors);
+                case "lastModified" -> {
+                    OffsetDateTime modified = parseDate(field, parser.getValueAsString(), errors);
+                    lastModified = modified == null ? 0 : modified.toInstant().toEpochMilli();
+                }
+                case "tags" -> {
+                    while (value == JsonToken.START_ARRAY && parser.nextToken() != JsonToken.END_ARRAY) {
+                        tags.add(parser.getValueAsString());
+                    }
+                }
+                case "html" -> {
+                    if (withContent) {
+                        html = parser.getValueAsString("");
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+
+        String slug = StringUtils.removeEnd(pageName, ".htm");
+
+        return new BlogPost(unid, pageName, title, slug, date, lastModified, category, tags, html);
+    }
+
+    private static OffsetDateTime parseDate(String field, String value, List<String> errors) {
+        try {
+            return OffsetDateTime.parse(StringUtils.defaultString(value));
+        } catch (DateTimeParseException e) {
+            errors.add("invalid " + field + " '" + value + "'");
+            return null;
+        }
+    }
+}
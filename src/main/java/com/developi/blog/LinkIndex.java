@@ -0,0 +1,272 @@
+package com.developi.blog;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Compact, immutable index of internal links: page name to output file name.
+ * <p>
+ * Page names are normalised and kept sorted in a single char array, looked up with a binary search. Lookups normalise
+ * the URL on the fly, so variants of a link to the same post resolve without allocating anything:
+ * <ul>
+ *     <li>absolute URLs on the host and database of the base URL, in any scheme, with or without the {@code dx/} path,</li>
+ *     <li>root-relative URLs in the database of the base URL,</li>
+ *     <li>paths relative to a post, e.g. {@code my-post.htm}, {@code dx/my-post.htm} or {@code ../dx/my-post.htm},</li>
+ *     <li>query strings and fragments (e.g. {@code ?OpenDocument}),</li>
+ *     <li>letter case.</li>
+ * </ul>
+ * URLs to other hosts or other databases never resolve, even if they have the same page name (e.g. a sibling blog of
+ * the same server). Without a base URL, only relative paths resolve.
+ */
+public final class LinkIndex {
+
+    private static final String DX_PATH = "dx/";
+
+    // Host (with port) and database path of the base URL, e.g. www.example.com and /blog.nsf/. Empty without a base URL.
+    private final String host;
+    private final String dbPath;
+
+    // Normalised page names, sorted and concatenated. Key i is keys[keyOffsets[i], keyOffsets[i + 1])
+    private final char[] keys;
+    private final int[] keyOffsets;
+
+    // File names, in the order of keys
+    private final String[] values;
+
+    private LinkIndex(String host, String dbPath, char[] keys, int[] keyOffsets, String[] values) {
+        this.host = host;
+        this.dbPath = dbPath;
+        this.keys = keys;
+        this.keyOffsets = keyOffsets;
+        this.values = values;
+    }
+
+    /**
+     * @param mapping page name to file name mapping
+     * @param baseUrl public URL of the blog, e.g. https://www.example.com/blog.nsf/dx/. May be empty.
+     */
+    public static LinkIndex of(Map<String, String> mapping, String baseUrl) {
+        String host = baseHost(StringUtils.defaultString(baseUrl));
+        String dbPath = baseDbPath(StringUtils.defaultString(baseUrl));
+
+        String[][] entries = mapping.entrySet()
+                                    .stream()
+                                    .map(entry -> new String[]{normalise(entry.getKey(), host, dbPath), entry.getValue()})
+                                    .filter(entry -> !entry[0].isEmpty())
+                                    .sorted((a, b) -> a[0].compareTo(b[0]))
+                                    .toArray(String[][]::new);
+
+        StringBuilder keys = new StringBuilder();
+        int[] keyOffsets = new int[entries.length + 1];
+        String[] values = new String[entries.length];
+        int count = 0;
+
+        for (String[] entry : entries) {
+            if (count > 0 && entry[0].contentEquals(keys.subSequence(keyOffsets[count - 1], keyOffsets[count]))) {
+                System.out.println("Duplicate page name, keeping the first one: " + entry[0]);
+                continue;
+            }
+
+            keys.append(entry[0]);
+            values[count] = entry[1];
+            keyOffsets[++count] = keys.length();
+        }
+
+        char[] keyChars = new char[keys.length()];
+        keys.getChars(0, keys.length(), keyChars, 0);
+
+        return new LinkIndex(host, dbPath, keyChars, Arrays.copyOf(keyOffsets, count + 1), Arrays.copyOf(values, count));
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * @param url link URL or page name
+     * @return the file name of the post, or null if the URL is not a link to a known post
+     */
+    public String get(String url) {
+        if (url == null) {
+            return null;
+        }
+
+        int end = pathEnd(url);
+        int start = pathStart(url, end, host, dbPath);
+
+        if (start < 0 || start >= end) {
+            return null;
+        }
+
+        int low = 0;
+        int high = values.length - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareKey(mid, url, start, end);
+
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return values[mid];
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @param url link URL
+     * @return true if the URL has the shape of a link to a post of this blog (in the database of the base URL, a
+     * {@code dx/} path or a relative {@code .htm} page), whether or not the post is known
+     */
+    public boolean isBlogLink(String url) {
+        if (url == null) {
+            return false;
+        }
+
+        int end = pathEnd(url);
+        int start = pathStart(url, end, host, dbPath);
+
+        if (start < 0 || start >= end) {
+            return false;
+        }
+
+        return start > skipDotSlashes(url, 0) || StringUtils.endsWithIgnoreCase(url.substring(start, end), ".htm");
+    }
+
+    /**
+     * Compares key i with the lower-cased region of the URL.
+     */
+    private int compareKey(int i, String url, int start, int end) {
+        int keyStart = keyOffsets[i];
+        int keyLength = keyOffsets[i + 1] - keyStart;
+        int length = end - start;
+
+        for (int k = 0; k < Math.min(keyLength, length); k++) {
+            char a = keys[keyStart + k];
+            char b = Character.toLowerCase(url.charAt(start + k));
+
+            if (a != b) {
+                return a - b;
+            }
+        }
+
+        return keyLength - length;
+    }
+
+    private static String normalise(String url, String host, String dbPath) {
+        int end = pathEnd(url);
+        int start = pathStart(url, end, host, dbPath);
+
+        return start < 0 || start >= end ? "" : url.substring(start, end).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return host and port of the base URL, e.g. www.example.com, empty if it's not absolute
+     */
+    private static String baseHost(String baseUrl) {
+        int scheme = baseUrl.indexOf("://");
+
+        if (scheme < 0) {
+            return "";
+        }
+
+        int path = baseUrl.indexOf('/', scheme + 3);
+
+        return path < 0 ? baseUrl.substring(scheme + 3) : baseUrl.substring(scheme + 3, path);
+    }
+
+    /**
+     * @return path of the database in the base URL, e.g. /blog.nsf/ for https://www.example.com/blog.nsf/dx/, empty
+     * if the base URL is not absolute
+     */
+    private static String baseDbPath(String baseUrl) {
+        int scheme = baseUrl.indexOf("://");
+
+        if (scheme < 0) {
+            return "";
+        }
+
+        int pathStart = baseUrl.indexOf('/', scheme + 3);
+
+        if (pathStart < 0) {
+            return "/";
+        }
+
+        // The directory of the base URL, without the dx/ path of the posts
+        String path = baseUrl.substring(pathStart, pathEnd(baseUrl));
+        path = path.substring(0, path.lastIndexOf('/') + 1);
+
+        return StringUtils.endsWithIgnoreCase(path, "/" + DX_PATH) ? path.substring(0, path.length() - DX_PATH.length()) : path;
+    }
+
+    /**
+     * @return end of the path, before the query string or fragment
+     */
+    private static int pathEnd(String url) {
+        for (int i = 0; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c == '?' || c == '#') {
+                return i;
+            }
+        }
+
+        return url.length();
+    }
+
+    /**
+     * @return start of the page name in the URL, or -1 if the URL points to another host or database
+     */
+    private static int pathStart(String url, int end, String host, String dbPath) {
+        int scheme = url.indexOf("://");
+        int start;
+
+        if (url.startsWith("//") || (scheme > 0 && scheme < end)) {
+            // Absolute, in any scheme (e.g. http vs https). The database path starts with '/', so it ends the host too.
+            int hostStart = url.startsWith("//") ? 2 : scheme + 3;
+
+            if (host.isEmpty()
+                || !url.regionMatches(true, hostStart, host, 0, host.length())
+                || !url.regionMatches(true, hostStart + host.length(), dbPath, 0, dbPath.length())) {
+                return -1;
+            }
+
+            start = hostStart + host.length() + dbPath.length();
+        } else if (url.startsWith("/")) {
+            if (dbPath.isEmpty() || !url.regionMatches(true, 0, dbPath, 0, dbPath.length())) {
+                return -1;
+            }
+
+            start = dbPath.length();
+        } else {
+            // Relative to a post, i.e. to the dx/ path. One level up is the database itself.
+            start = skipDotSlashes(url, 0);
+
+            if (url.startsWith("../", start)) {
+                start = skipDotSlashes(url, start + 3);
+            }
+        }
+
+        if (url.regionMatches(true, start, DX_PATH, 0, DX_PATH.length())) {
+            start += DX_PATH.length();
+        }
+
+        // A page in the database, not a path to another database (e.g. ../other.nsf/dx/my-post.htm)
+        int slash = url.indexOf('/', start);
+
+        return slash >= 0 && slash < end ? -1 : start;
+    }
+
+    private static int skipDotSlashes(String url, int start) {
+        while (url.startsWith("./", start)) {
+            start += 2;
+        }
+
+        return start;
+    }
+}
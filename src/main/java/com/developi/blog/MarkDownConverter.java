@@ -1,10 +1,5 @@
 package com.developi.blog;
 
-import static com.developi.blog.BlogConverter.BASE_URL;
-import static com.developi.blog.BlogConverter.PATH_IMG;
-import static com.developi.blog.BlogConverter.PATH_POSTS;
-
-import com.hcl.domino.commons.util.MimeTypes;
 import com.vladsch.flexmark.html.renderer.LinkType;
 import com.vladsch.flexmark.html.renderer.ResolvedLink;
 import com.vladsch.flexmark.html2md.converter.FlexmarkHtmlConverter;
@@ -20,17 +15,10 @@ import com.vladsch.flexmark.parser.Parser;
 import com.vladsch.flexmark.util.data.DataHolder;
 import com.vladsch.flexmark.util.data.MutableDataHolder;
 import com.vladsch.flexmark.util.data.MutableDataSet;
-import java.io.IOException;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.regex.Pattern;
 import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jsoup.nodes.Element;
@@ -38,17 +26,22 @@ import org.jsoup.nodes.Node;
 
 public class MarkDownConverter {
 
-    private final FlexmarkHtmlConverter converter;
-    private final BlogConverter blogConverter;
-    private final HtmlLinkResolver localLinkResolver;
+    private static final Pattern OPEN_ELEMENT_SUFFIX = Pattern.compile("\\?OpenElement$");
+    private static final Pattern FILE_EXTENSION = Pattern.compile("\\.[^.]+$");
+    private static final Pattern INVALID_FILENAME_CHARS = Pattern.compile("[^A-Za-z0-9\\-]");
+    private static final Pattern MULTIPLE_HYPHENS = Pattern.compile("-{2,}");
+    private static final Pattern LEADING_TRAILING_HYPHENS = Pattern.compile("^-|-$");
 
-    // Shared HttpClient (thread-safe)
-    private static final HttpClient SHARED_CLIENT = HttpClient.newHttpClient();
+    private final FlexmarkHtmlConverter converter;
 
-    MarkDownConverter(BlogConverter blogConverter) {
-        this.blogConverter = blogConverter;
-        this.localLinkResolver = new LocalLinkResolver(null);
+    // Context of the conversion running on the current thread. Flexmark creates link resolvers per conversion on the
+    // converting thread, so they pick their context from here.
+    private final ThreadLocal<ConversionContext> currentContext = new ThreadLocal<>();
 
+    /**
+     * Builds the converter once. Instances are thread-safe, per-conversion state is passed with a {@link ConversionContext}.
+     */
+    public MarkDownConverter() {
         MutableDataSet options = new MutableDataSet();
         options.set(Parser.EXTENSIONS,
                     List.of(new CustomExtension()));
@@ -64,15 +57,43 @@ public class MarkDownConverter {
     /**
      * Converts a snippet of HTML into Markdown.
      *
-     * @param html the input HTML string (must not be null)
+     * @param html    the input HTML string (must not be null)
+     * @param context link mapping and image handling for this conversion
      * @return a Markdown-formatted string
      */
-    public String htmlToMarkdown(String html) {
+    public String htmlToMarkdown(String html, ConversionContext context) {
         if (html == null) {
             throw new IllegalArgumentException("Input HTML must not be null");
         }
 
-        return converter.convert(html);
+        currentContext.set(context);
+
+        try {
+            return converter.convert(html);
+        } finally {
+            currentContext.remove();
+        }
+    }
+
+    /**
+     * Converts a snippet of HTML into Markdown, appending it to the output instead of returning a new string.
+     *
+     * @param html    the input HTML string (must not be null)
+     * @param context link mapping and image handling for this conversion
+     * @param out     receives the Markdown, e.g. a {@link PostFormatter.MarkdownCleaner}
+     */
+    public void htmlToMarkdown(String html, ConversionContext context, Appendable out) {
+        if (html == null) {
+            throw new IllegalArgumentException("Input HTML must not be null");
+        }
+
+        currentContext.set(context);
+
+        try {
+            converter.convert(html, out);
+        } finally {
+            currentContext.remove();
+        }
     }
 
     /**
@@ -80,9 +101,12 @@ public class MarkDownConverter {
      * 1) Image links will be downloaded and converted to local links
      * 2) Internal links will be converted to local links
      */
-    class LocalLinkResolver implements HtmlLinkResolver {
+    static class LocalLinkResolver implements HtmlLinkResolver {
+
+        private final ConversionContext conversionContext;
 
-        public LocalLinkResolver(HtmlNodeConverterContext context) {
+        public LocalLinkResolver(ConversionContext conversionContext) {
+            this.conversionContext = conversionContext;
         }
 
         @Override
@@ -95,8 +119,12 @@ public class MarkDownConverter {
                 }
             } else if (link.getLinkType().equals(LinkType.LINK)) {
 
-                // Links inside the blog
-                String newFileName = blogConverter.getFileNameMapping().get(link.getUrl());
+                // Links inside the blog, in any URL variant
+                String newFileName = conversionContext.linkIndex().get(link.getUrl());
+                if (conversionContext.linkListener() != null) {
+                    conversionContext.linkListener().onLink(link.getUrl(), newFileName);
+                }
+
                 if (StringUtils.isNotEmpty(newFileName)) {
                     return link.withUrl(newFileName).withTitle(newFileName);
                 }
@@ -107,6 +135,16 @@ public class MarkDownConverter {
 
             return link;
         }
+
+        /**
+         * Passes the image to the image sink (e.g. starts the download in the background) and links to the returned file.
+         */
+        private ResolvedLink downloadBlogImage(ResolvedLink link) {
+            String imgFileName = toValidFilename(link.getUrl());
+            String localFileName = conversionContext.imageSink().request(link.getUrl(), imgFileName);
+
+            return link.withUrl(conversionContext.imageUrlPrefix() + "/" + localFileName);
+        }
     }
 
     /**
@@ -139,65 +177,6 @@ public class MarkDownConverter {
         }
     }
 
-    private ResolvedLink downloadBlogImage(ResolvedLink link) {
-        try {
-            String imgFileName = toValidFilename(link.getUrl());
-            Path localImagePath = downloadImageUrl(link.getUrl(), imgFileName);
-
-            String urlPrefix = PATH_POSTS.relativize(localImagePath.getParent()).toString();
-
-            return link.withUrl(urlPrefix + "/" + localImagePath.getFileName());
-
-        } catch (Exception e) {
-            System.out.println("Failed to download image: " + link.getUrl());
-            throw new RuntimeException(e);
-        }
-    }
-
-    /**
-     * Downloads an image from the given URL, inspects its Content-Type to decide on an extension,
-     * and writes it into the specified local directory with the given base filename.
-     *
-     * @param imageUrl     the URL of the image to download
-     * @param baseFileName the filename (without extension) to use when saving locally
-     * @return the path to the saved file
-     */
-    public static Path downloadImageUrl(String imageUrl, String baseFileName) throws Exception {
-        // 1. Build the GET request for the image URL
-        HttpRequest request = HttpRequest.newBuilder()
-                                         .uri(URI.create(BASE_URL + imageUrl))
-                                         .GET()
-                                         .build();
-
-        // 2. Send the request, asking for the response body as a byte array
-        HttpResponse<byte[]> response = SHARED_CLIENT.send(
-            request,
-            HttpResponse.BodyHandlers.ofByteArray()
-        );
-
-        // 3. Check the status code (200 OK expected)
-        int statusCode = response.statusCode();
-        if (statusCode != 200) {
-            throw new IOException("Failed to download image: HTTP status " + statusCode);
-        }
-
-        // 4. Inspect the Content-Type header to determine the extension
-        String contentType = response.headers()
-                                     .firstValue("Content-Type")
-                                     .orElseThrow(() -> new IOException("No Content-Type header in response"));
-
-        // If contentType has parameters (e.g. "image/png; charset=UTF-8"), we strip them off.
-        String extension = MimeTypes.getExtension(contentType.split(";")[0].trim());
-
-        // 5. Build the full path: outputDir / (baseFileName + "." + extension)
-        Path outputFilePath = PATH_IMG.resolve(baseFileName + "." + extension);
-
-        // 6. Write the bytes to the file (overwrite if it already exists)
-        Files.write(outputFilePath, response.body(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-
-        return outputFilePath;
-    }
-
     /**
      * Converts an input of the form:
      * {html-file-name}/content/M{n}?OpenElement
@@ -207,7 +186,7 @@ public class MarkDownConverter {
     public static String toValidFilename(String input) {
         // 1. Remove the literal "?OpenElement" if present
         //    (the trailing part after M<number>)
-        input = input.replaceFirst("\\?OpenElement$", "");
+        input = OPEN_ELEMENT_SUFFIX.matcher(input).replaceFirst("");
 
         // 2. Split on "/content/" – we expect exactly one occurrence
         String[] parts = input.split("/content/", 2);
@@ -222,17 +201,17 @@ public class MarkDownConverter {
         // fPart = "html-file-name" / e.g. "celebrating-openntfs-20th-anniversary....htm"
         // 3a. Remove the extension from fPart (e.g. ".htm", ".html", ".xhtml", etc.)
         //     This regex strips off the last “.something” from the end.
-        String fPart = parts[0].replaceFirst("\\.[^.]+$", "");
+        String fPart = FILE_EXTENSION.matcher(parts[0]).replaceFirst("");
 
         // 3b. Replace any character that is NOT [A–Z a–z 0–9 -] with a hyphen
         //     This turns spaces, punctuation, even multiple dots into hyphens.
-        fPart = fPart.replaceAll("[^A-Za-z0-9\\-]", "-");
+        fPart = INVALID_FILENAME_CHARS.matcher(fPart).replaceAll("-");
 
         // 3c. Collapse multiple hyphens into a single hyphen
-        fPart = fPart.replaceAll("-{2,}", "-");
+        fPart = MULTIPLE_HYPHENS.matcher(fPart).replaceAll("-");
 
         // 3d. Trim any leading or trailing hyphens
-        fPart = fPart.replaceAll("^-|-$", "");
+        fPart = LEADING_TRAILING_HYPHENS.matcher(fPart).replaceAll("");
 
         // 4. Re‐join with a hyphen
         //    We assume mPart is already in the form "M<number>" (no further sanitisation needed).
@@ -259,7 +238,13 @@ public class MarkDownConverter {
 
         @Override
         public HtmlLinkResolver apply(HtmlNodeConverterContext context) {
-            return localLinkResolver;
+            ConversionContext conversionContext = currentContext.get();
+
+            if (conversionContext == null) {
+                throw new IllegalStateException("No conversion context. Use htmlToMarkdown(html, context)");
+            }
+
+            return new LocalLinkResolver(conversionContext);
         }
     }
 
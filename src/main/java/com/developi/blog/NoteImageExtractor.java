@@ -0,0 +1,269 @@
+package com.developi.blog;
+
+import com.hcl.domino.commons.util.MimeTypes;
+import com.hcl.domino.data.Attachment;
+import com.hcl.domino.data.Document;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Copies embedded images out of the note, so they don't have to be downloaded over HTTP.
+ * <p>
+ * Posts refer to their images as {@code {page-name}/content/M{n}?OpenElement}. The element {@code M{n}} is mapped to the
+ * attachment of the note named {@code M{n}} (with any extension). Images which can't be mapped are left to the HTTP
+ * download, an attachment is never guessed.
+ * <p>
+ * Limitation: Domino serves {@code M{n}} from the n-th inline image of the rich text (or a MIME part), which is
+ * usually not stored as an attachment of that name. Reading inline images from the rich-text records is not
+ * supported, so for most blogs only images which were attached with their element name are found here. The
+ * others are counted as {@link ExportMetrics.Counter#IMAGES_NOT_IN_NOTE}, which shows the hit rate of a run.
+ * <p>
+ * Runs on a Domino thread while the document is open. The bytes are streamed into temporary files in the image
+ * directory, computing the SHA-256 on the way, so they can be moved into place atomically later. The MIME type is
+ * detected from the first bytes of the content, the file name is only the fallback. Attachments which turn out not to be
+ * images are left to the HTTP download as well.
+ */
+public class NoteImageExtractor {
+
+    private static final String CONTENT_SEGMENT = "/content/";
+    private static final String OPEN_ELEMENT = "?OpenElement";
+
+    private static final Pattern ELEMENT_REFERENCE = Pattern.compile(Pattern.quote(CONTENT_SEGMENT) + "(M\\d+)" + Pattern.quote(OPEN_ELEMENT), Pattern.CASE_INSENSITIVE);
+    private static final Pattern ELEMENT_NAME = Pattern.compile("M\\d+", Pattern.CASE_INSENSITIVE);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Number of bytes needed to detect the image format
+    private static final int SIGNATURE_LENGTH = 12;
+
+    private final Path targetDir;
+    private final long maxBytes;
+    private final ExportMetrics metrics;
+
+    /**
+     * @param targetDir directory for temporary files, the image directory
+     * @param maxBytes  maximum size of an image. Larger ones are left to the HTTP download, which enforces the limit.
+     * @param metrics   counts the referenced images which are not copied out of the note
+     */
+    public NoteImageExtractor(Path targetDir, long maxBytes, ExportMetrics metrics) {
+        this.targetDir = targetDir;
+        this.maxBytes = maxBytes;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the element name of an embedded image URL of the given post, e.g. "M3" for
+     * {@code my-post.htm/content/M3?OpenElement}.
+     *
+     * @return element name in upper case, null if the URL is not an embedded image of the post
+     */
+    public static String elementName(String imageUrl, String pageName) {
+        int contentIndex = StringUtils.indexOfIgnoreCase(imageUrl, CONTENT_SEGMENT);
+
+        if (contentIndex < 0 || !StringUtils.endsWithIgnoreCase(imageUrl, OPEN_ELEMENT)) {
+            return null;
+        }
+
+        String page = imageUrl.substring(imageUrl.lastIndexOf('/', contentIndex - 1) + 1, contentIndex);
+        String element = imageUrl.substring(contentIndex + CONTENT_SEGMENT.length(), imageUrl.length() - OPEN_ELEMENT.length());
+
+        if (!page.equalsIgnoreCase(pageName) || !ELEMENT_NAME.matcher(element).matches()) {
+            return null;
+        }
+
+        return element.toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Copies the images referenced in the HTML out of the document. Errors are reported, the image is downloaded then.
+     *
+     * @param doc  document of the post
+     * @param html HTML content of the post
+     * @return copied images by element name, e.g. "M3"
+     */
+    public Map<String, EmbeddedImage> extract(Document doc, String html) {
+        Set<String> elements = referencedElements(html);
+
+        if (elements.isEmpty()) {
+            return Map.of();
+        }
+
+        List<String> attachmentNames = doc.getAttachmentNames();
+
+        if (attachmentNames.isEmpty()) {
+            metrics.add(ExportMetrics.Counter.IMAGES_NOT_IN_NOTE, elements.size());
+            return Map.of();
+        }
+
+        Map<String, EmbeddedImage> images = new LinkedHashMap<>();
+
+        for (String element : elements) {
+            String attachmentName = attachmentFor(element, attachmentNames);
+
+            if (attachmentName == null) {
+                continue;
+            }
+
+            try {
+                Optional<Attachment> attachment = doc.getAttachment(attachmentName);
+
+                if (attachment.isPresent() && attachment.get().getFileSize() <= maxBytes) {
+                    EmbeddedImage image = copy(attachment.get(), attachmentName);
+
+                    if (image != null) {
+                        images.put(element, image);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Error extracting image " + attachmentName + " of " + doc.getUNID() + ": " + e.getMessage());
+            }
+        }
+
+        // Left to the HTTP download
+        metrics.add(ExportMetrics.Counter.IMAGES_NOT_IN_NOTE, elements.size() - images.size());
+
+        return images;
+    }
+
+    private static Set<String> referencedElements(String html) {
+        Set<String> elements = new LinkedHashSet<>();
+
+        if (html != null) {
+            Matcher matcher = ELEMENT_REFERENCE.matcher(html);
+            while (matcher.find()) {
+                elements.add(matcher.group(1).toUpperCase(Locale.ROOT));
+            }
+        }
+
+        return elements;
+    }
+
+    /**
+     * @return attachment named like the element, null if there is none
+     */
+    static String attachmentFor(String element, List<String> attachmentNames) {
+        for (String name : attachmentNames) {
+            int dot = name.lastIndexOf('.');
+
+            if ((dot < 0 ? name : name.substring(0, dot)).equalsIgnoreCase(element)) {
+                return name;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Detects the image format from the first bytes of the content.
+     *
+     * @param head   first bytes of the content
+     * @param length number of bytes in head
+     * @return MIME type, null if the format is not known
+     */
+    static String sniffMimeType(byte[] head, int length) {
+        if (startsWith(head, length, 0, 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n')) {
+            return "image/png";
+        }
+        if (startsWith(head, length, 0, 0xff, 0xd8, 0xff)) {
+            return "image/jpeg";
+        }
+        if (startsWith(head, length, 0, 'G', 'I', 'F', '8', '7', 'a') || startsWith(head, length, 0, 'G', 'I', 'F', '8', '9', 'a')) {
+            return "image/gif";
+        }
+        if (startsWith(head, length, 0, 'R', 'I', 'F', 'F') && startsWith(head, length, 8, 'W', 'E', 'B', 'P')) {
+            return "image/webp";
+        }
+        if (startsWith(head, length, 0, 'B', 'M')) {
+            return "image/bmp";
+        }
+        if (startsWith(head, length, 0, 'I', 'I', '*', 0) || startsWith(head, length, 0, 'M', 'M', 0, '*')) {
+            return "image/tiff";
+        }
+
+        return null;
+    }
+
+    private static boolean startsWith(byte[] head, int length, int offset, int... signature) {
+        if (length < offset + signature.length) {
+            return false;
+        }
+
+        for (int i = 0; i < signature.length; i++) {
+            if ((head[offset + i] & 0xff) != signature[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static String mimeType(String fileName) {
+        String mimeType = MimeTypes.getMimeType(fileName);
+
+        return mimeType == null ? null : mimeType.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return the copied image, null if the attachment is not an image
+     */
+    private EmbeddedImage copy(Attachment attachment, String attachmentName) throws IOException {
+        Path tempFile = Files.createTempFile(targetDir, ".note-", ".tmp");
+        MessageDigest digest = Hashing.newSha256();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        byte[] head = new byte[SIGNATURE_LENGTH];
+        int headLength = 0;
+        long size = 0;
+
+        try (InputStream in = attachment.getInputStream();
+             OutputStream out = Files.newOutputStream(tempFile)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                size += read;
+
+                if (size > maxBytes) {
+                    throw new StreamingBodyHandler.TooLargeException("Image is larger than " + maxBytes + " bytes");
+                }
+
+                if (headLength < head.length) {
+                    int copied = Math.min(read, head.length - headLength);
+                    System.arraycopy(buffer, 0, head, headLength, copied);
+                    headLength += copied;
+                }
+
+                digest.update(buffer, 0, read);
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+
+        // The stored name can be wrong or without extension, e.g. M3
+        String mimeType = sniffMimeType(head, headLength);
+
+        if (mimeType == null) {
+            mimeType = mimeType(attachmentName);
+        }
+
+        if (!StringUtils.startsWith(mimeType, "image/")) {
+            Files.deleteIfExists(tempFile);
+            return null;
+        }
+
+        return new EmbeddedImage(tempFile, size, Hashing.toHex(digest), mimeType);
+    }
+}
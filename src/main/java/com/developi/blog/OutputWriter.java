@@ -0,0 +1,120 @@
+package com.developi.blog;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Writes exported files as UTF-8 through a buffer into a temporary file next to the target, then replaces the target
+ * with an atomic rename. An interrupted run leaves either the previous or the new version of a file, never a partial one.
+ * <p>
+ * Written files are not flushed to disk one by one. {@link #sync()} forces all of them, and their directories, at the
+ * end of the run.
+ */
+public class OutputWriter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Set<Path> written = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Writes the parts into the target file, replacing it if it exists. Thread-safe for different targets.
+     */
+    public void write(Path target, CharSequence... parts) throws IOException {
+        // Not Files.createTempFile, it would create the file with owner-only permissions
+        Path tempFile = target.resolveSibling("." + target.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+
+        try {
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                Files.newOutputStream(tempFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+                for (CharSequence part : parts) {
+                    write(writer, part);
+                }
+            }
+
+            moveIntoPlace(tempFile, target);
+            written.add(target);
+        } finally {
+            // No-op if already moved
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Writes the text without converting it to a String first.
+     */
+    private static void write(Writer writer, CharSequence text) throws IOException {
+        if (text instanceof String string) {
+            writer.write(string);
+            return;
+        }
+
+        char[] chunk = new char[Math.min(text.length(), BUFFER_SIZE)];
+
+        for (int start = 0; start < text.length(); start += chunk.length) {
+            int end = Math.min(start + chunk.length, text.length());
+
+            if (text instanceof StringBuilder sb) {
+                sb.getChars(start, end, chunk, 0);
+            } else {
+                for (int i = start; i < end; i++) {
+                    chunk[i - start] = text.charAt(i);
+                }
+            }
+
+            writer.write(chunk, 0, end - start);
+        }
+    }
+
+    /**
+     * Forces files written since the last call, and their directories, to disk.
+     *
+     * @return number of files synced
+     */
+    public int sync() {
+        Set<Path> files = Set.copyOf(written);
+        Set<Path> directories = new HashSet<>();
+
+        for (Path file : files) {
+            // Write access, without truncating: Windows needs it to flush the file
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            } catch (IOException e) {
+                System.err.println("Error syncing " + file + ": " + e.getMessage());
+            }
+
+            directories.add(file.toAbsolutePath().getParent());
+            written.remove(file);
+        }
+
+        // Makes the renames durable. Not supported on every platform (e.g. Windows), where it's not needed.
+        for (Path directory : directories) {
+            try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (IOException ignored) {
+            }
+        }
+
+        return files.size();
+    }
+
+    static void moveIntoPlace(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.developi.blog;
+
+import com.hcl.domino.commons.json.JsonUtil;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Creates the text around the converted post: Markdown post-processing and the front matter.
+ * <p>
+ * Both append to the output as they go, so a post can be assembled in a single buffer.
+ */
+public final class PostFormatter {
+
+    private static final String CONTINUE_READING = "\\<$DXContinueReading$\\>";
+    private static final String MORE_MARKER = "<!-- more -->";
+
+    private PostFormatter() {
+    }
+
+    /**
+     * Cleans up the converted Markdown: trims lines and replaces the Domino "continue reading" tag with a
+     * "more" marker.
+     */
+    public static String processMarkdown(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+
+        MarkdownCleaner cleaner = processMarkdown(sb);
+        cleaner.append(s);
+        cleaner.finish();
+
+        return sb.toString();
+    }
+
+    /**
+     * Same as {@link #processMarkdown(String)}, while the Markdown is written, e.g. by the converter.
+     *
+     * @param out receives the cleaned Markdown
+     * @return appendable to write the Markdown to. Call {@link MarkdownCleaner#finish()} at the end.
+     */
+    public static MarkdownCleaner processMarkdown(Appendable out) {
+        return new MarkdownCleaner(out);
+    }
+
+    /**
+     * Renders the Markdown file of the post: the front matter and the converted, cleaned Markdown. The export and the
+     * dry run ({@link ExportAnalysis}) both render with it, so the dry run measures what the export writes.
+     *
+     * @param html      preprocessed HTML content, see {@link HtmlRewriter}
+     * @param converter converts the HTML
+     * @param context   resolves links and receives the images
+     * @param out       receives the Markdown file content
+     */
+    public static void render(BlogPost post, String html, String authorName, MarkDownConverter converter, ConversionContext context,
+                              Appendable out) {
+        appendFrontMatter(post, authorName, out);
+
+        MarkdownCleaner cleaner = processMarkdown(out);
+        converter.htmlToMarkdown(html, context, cleaner);
+        cleaner.finish();
+    }
+
+    /**
+     * Creates the YAML front matter for the post.
+     */
+    public static String createFrontMatter(BlogPost post, String authorName) {
+        StringBuilder sb = new StringBuilder(256);
+        appendFrontMatter(post, authorName, sb);
+
+        return sb.toString();
+    }
+
+    /**
+     * Appends the YAML front matter for the post.
+     */
+    public static void appendFrontMatter(BlogPost post, String authorName, Appendable out) {
+        String dateFormatted = JsonUtil.toIsoString(post.date());
+        String title = post.title();
+        String slug = post.slug();
+        List<String> tags = post.tags();
+        String category = post.category();
+
+        try {
+            out.append("---\n")
+               .append("authors:\n").append("  - ").append(authorName).append("\n\n")
+               .append("title: \"").append(title.replace("\"", "\\\"")).append("\"\n\n")
+               .append("slug: ").append(slug).append("\n\n")
+               .append("date: ").append(dateFormatted).append("\n\n");
+
+            if (StringUtils.isNotEmpty(category)) {
+                out.append("categories:\n").append("  - ").append(category).append("\n\n");
+            }
+
+            if (!tags.isEmpty() && StringUtils.isNotEmpty(tags.get(0))) {
+                out.append("tags:\n");
+                for (String tag : tags) {
+                    out.append("  - ").append(tag).append("\n");
+                }
+            }
+
+            out.append("---\n\n");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Cleans up Markdown line by line while it's appended, passing the result to the output. Only the current line is
+     * buffered.
+     * <p>
+     * The output matches splitting the text into lines: trailing empty lines are dropped and every line ends with a
+     * line feed.
+     */
+    public static final class MarkdownCleaner implements Appendable {
+
+        private final Appendable out;
+        private final StringBuilder line = new StringBuilder(256);
+
+        // Empty lines are held back until a non-empty line follows
+        private int pendingEmptyLines;
+        private boolean empty = true;
+
+        private MarkdownCleaner(Appendable out) {
+            this.out = out;
+        }
+
+        @Override
+        public MarkdownCleaner append(CharSequence csq) {
+            return append(csq, 0, csq.length());
+        }
+
+        @Override
+        public MarkdownCleaner append(CharSequence csq, int start, int end) {
+            for (int i = start; i < end; i++) {
+                append(csq.charAt(i));
+            }
+
+            return this;
+        }
+
+        @Override
+        public MarkdownCleaner append(char c) {
+            empty = false;
+
+            if (c == '\n') {
+                endLine();
+            } else {
+                line.append(c);
+            }
+
+            return this;
+        }
+
+        /**
+         * Writes the last line.
+         */
+        public void finish() {
+            if (empty) {
+                // An empty text is a single empty line
+                write("\n");
+            } else if (!line.isEmpty()) {
+                endLine();
+            }
+        }
+
+        private void endLine() {
+            if (line.isEmpty()) {
+                pendingEmptyLines++;
+                return;
+            }
+
+            for (; pendingEmptyLines > 0; pendingEmptyLines--) {
+                write("\n");
+            }
+
+            // Same as String.trim()
+            int start = 0;
+            int end = line.length();
+
+            while (start < end && line.charAt(start) <= ' ') {
+                start++;
+            }
+            while (end > start && line.charAt(end - 1) <= ' ') {
+                end--;
+            }
+
+            int tag = line.indexOf(CONTINUE_READING, start);
+
+            while (tag >= 0 && tag + CONTINUE_READING.length() <= end) {
+                write(line, start, tag);
+                write(MORE_MARKER, 0, MORE_MARKER.length());
+                start = tag + CONTINUE_READING.length();
+                tag = line.indexOf(CONTINUE_READING, start);
+            }
+
+            write(line, start, end);
+            write("\n");
+
+            line.setLength(0);
+        }
+
+        private void write(CharSequence csq) {
+            write(csq, 0, csq.length());
+        }
+
+        private void write(CharSequence csq, int start, int end) {
+            try {
+                out.append(csq, start, end);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.developi.blog;
+
+import java.time.temporal.TemporalAccessor;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * Where the blog posts come from.
+ * <p>
+ * The export reads posts in two passes. The first pass reads only summaries to map page names to file names, so links
+ * between posts can be resolved. The second pass loads the full posts to be exported.
+ */
+public interface PostSource {
+
+    /**
+     * Summary of a post, enough to decide on its file name and whether it needs to be exported.
+     *
+     * @param unid         unique id of the post
+     * @param pageName     original page name (res_title), e.g. "my-post.htm"
+     * @param date         publishing date
+     * @param lastModified last modification time in epoch millis, 0 if unknown until the post is loaded
+     */
+    record PostSummary(String unid, String pageName, TemporalAccessor date, long lastModified) {
+
+        public boolean isLastModifiedKnown() {
+            return lastModified != 0;
+        }
+    }
+
+    /**
+     * Decides whether a post needs to be loaded, once its modification time is known.
+     */
+    @FunctionalInterface
+    interface ChangeFilter {
+
+        /**
+         * @param lastModified last modification time in epoch millis
+         * @return false to skip the post, e.g. it's not modified since the last export
+         */
+        boolean needsExport(String unid, long lastModified);
+    }
+
+    /**
+     * Pass 1: Reads summaries of all posts.
+     */
+    void forEachSummary(Consumer<PostSummary> consumer);
+
+    /**
+     * Pass 2: Loads all given posts.
+     *
+     * @see #forEachPost(Collection, ChangeFilter, Consumer)
+     */
+    default void forEachPost(Collection<PostSummary> posts, Consumer<BlogPost> consumer) {
+        forEachPost(posts, (unid, lastModified) -> true, consumer);
+    }
+
+    /**
+     * Pass 2: Loads the given posts. Returns when all posts are passed to the consumer.
+     * <p>
+     * The filter is asked before the content of a post is read, so a source which learns the modification time only
+     * now (e.g. when the note is opened) skips unchanged posts cheaply. Skipped posts are not passed to the consumer.
+     * <p>
+     * The consumer may block to slow the source down, and it may be called from several threads. It throws a
+     * {@link java.util.concurrent.CancellationException} to stop the source, which passes it on.
+     * Posts that can't be loaded are reported and skipped. If the source itself fails (e.g. the database can't be
+     * opened), it throws once all its threads are done.
+     *
+     * @param posts    posts to load, as received in the first pass
+     * @param filter   decides if a post is loaded at all
+     * @param consumer receives loaded posts
+     */
+    void forEachPost(Collection<PostSummary> posts, ChangeFilter filter, Consumer<BlogPost> consumer);
+}
@@ -0,0 +1,161 @@
+package com.developi.blog;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Part of a blog exported by one process, so several processes (or hosts) can export a large blog side by side.
+ * <p>
+ * Posts are partitioned by the hash of their UNID, so every process gets the same, non-overlapping part without any
+ * coordination. Each shard still reads all summaries to map every post, so links to posts of other shards resolve.
+ * Files kept between runs (manifest, image cache) get a shard suffix, e.g. {@code .export-manifest.shard-2-of-4.json},
+ * and are merged into the regular files when all shards are done.
+ *
+ * @param index 1-based index of the shard
+ * @param count number of shards
+ */
+public record Shard(int index, int count) implements Comparable<Shard> {
+
+    /**
+     * No sharding, the process exports all posts.
+     */
+    public static final Shard ALL = new Shard(1, 1);
+
+    private static final Pattern SHARD_PATTERN = Pattern.compile("(\\d+)/(\\d+)");
+    private static final Pattern FILE_SUFFIX_PATTERN = Pattern.compile("\\.shard-(\\d+)-of-(\\d+)");
+
+    public Shard {
+        if (count < 1 || index < 1 || index > count) {
+            throw new IllegalArgumentException("Invalid shard " + index + "/" + count + ", expected i/N with 1 <= i <= N");
+        }
+    }
+
+    /**
+     * @param value shard as i/N, e.g. 2/4. Empty for {@link #ALL}.
+     */
+    public static Shard parse(String value) {
+        if (StringUtils.isBlank(value)) {
+            return ALL;
+        }
+
+        Matcher matcher = SHARD_PATTERN.matcher(value.trim());
+
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid shard '" + value + "', expected i/N, e.g. 2/4");
+        }
+
+        return new Shard(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+    }
+
+    /**
+     * Reads the shard from the command line ({@code --shard i/N} or {@code --shard=i/N}), otherwise from the
+     * environment property SHARD.
+     */
+    public static Shard fromArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--shard")) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("--shard needs a value, e.g. --shard 2/4");
+                }
+                return parse(args[i + 1]);
+            }
+            if (args[i].startsWith("--shard=")) {
+                return parse(args[i].substring("--shard=".length()));
+            }
+        }
+
+        return parse(System.getenv("SHARD"));
+    }
+
+    public boolean isAll() {
+        return count == 1;
+    }
+
+    /**
+     * @return true if the post with the given UNID belongs to this shard
+     */
+    public boolean contains(String unid) {
+        return isAll() || indexOf(unid, count) == index;
+    }
+
+    /**
+     * @return 1-based index of the shard the UNID belongs to. String hash codes are the same in every JVM.
+     */
+    public static int indexOf(String unid, int count) {
+        return Integer.remainderUnsigned(unid.toUpperCase(Locale.ROOT).hashCode(), count) + 1;
+    }
+
+    /**
+     * Adds the shard suffix before the extension, e.g. {@code .export-manifest.json} becomes
+     * {@code .export-manifest.shard-2-of-4.json}. Unchanged without sharding.
+     */
+    public String fileName(String fileName) {
+        if (isAll()) {
+            return fileName;
+        }
+
+        int dot = fileName.lastIndexOf('.');
+        String suffix = ".shard-" + index + "-of-" + count;
+
+        return dot > 0 ? fileName.substring(0, dot) + suffix + fileName.substring(dot) : fileName + suffix;
+    }
+
+    /**
+     * Finds the shard files of the given file in the directory.
+     *
+     * @param fileName file name without shard suffix, e.g. {@code .export-manifest.json}
+     * @return shard files by shard, in the order of shards
+     * @throws IllegalStateException if there are files for different numbers of shards
+     */
+    public static Map<Shard, Path> findFiles(Path dir, String fileName) {
+        Map<Shard, Path> files = new TreeMap<>();
+
+        if (!Files.isDirectory(dir)) {
+            return files;
+        }
+
+        int dot = fileName.lastIndexOf('.');
+        String prefix = dot > 0 ? fileName.substring(0, dot) : fileName;
+        String extension = dot > 0 ? fileName.substring(dot) : "";
+
+        try (Stream<Path> paths = Files.list(dir)) {
+            paths.forEach(path -> {
+                String name = path.getFileName().toString();
+
+                if (name.startsWith(prefix) && name.endsWith(extension) && name.length() > prefix.length() + extension.length()) {
+                    Matcher matcher = FILE_SUFFIX_PATTERN.matcher(name.substring(prefix.length(), name.length() - extension.length()));
+
+                    if (matcher.matches()) {
+                        files.put(new Shard(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2))), path);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to list " + dir, e);
+        }
+
+        if (files.keySet().stream().map(Shard::count).distinct().count() > 1) {
+            throw new IllegalStateException("Shard files for different numbers of shards in " + dir + ", remove the outdated ones: " + files.values());
+        }
+
+        return files;
+    }
+
+    @Override
+    public int compareTo(Shard other) {
+        return count != other.count ? Integer.compare(count, other.count) : Integer.compare(index, other.index);
+    }
+
+    @Override
+    public String toString() {
+        return index + "/" + count;
+    }
+}
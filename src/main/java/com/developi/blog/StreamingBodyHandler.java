@@ -0,0 +1,163 @@
+package com.developi.blog;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * Streams a successful response body into a temporary file, computing its SHA-256 and enforcing a size limit on the
+ * way. The body is never held in memory as a whole.
+ * <p>
+ * Bodies of other responses (e.g. 304 Not Modified or errors) are discarded and the body is {@code null}.
+ */
+public class StreamingBodyHandler implements HttpResponse.BodyHandler<StreamingBodyHandler.DownloadedFile> {
+
+    private final Path tempDir;
+    private final long maxBytes;
+
+    /**
+     * @param tempDir  directory for temporary files. Use the target directory, so the file can be moved atomically.
+     * @param maxBytes maximum size of the body
+     */
+    public StreamingBodyHandler(Path tempDir, long maxBytes) {
+        this.tempDir = tempDir;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param tempFile temporary file with the content. The caller is responsible to move or delete it.
+     * @param size     size in bytes
+     * @param sha256   SHA-256 of the content
+     */
+    public record DownloadedFile(Path tempFile, long size, String sha256) {
+
+        public void delete() {
+            try {
+                Files.deleteIfExists(tempFile);
+            } catch (IOException e) {
+                System.err.println("Error deleting temporary file " + tempFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The body exceeds the maximum size. Not worth a retry.
+     */
+    public static class TooLargeException extends IOException {
+
+        public TooLargeException(String message) {
+            super(message);
+        }
+    }
+
+    @Override
+    public BodySubscriber<DownloadedFile> apply(HttpResponse.ResponseInfo responseInfo) {
+        if (responseInfo.statusCode() != 200) {
+            return BodySubscribers.replacing(null);
+        }
+
+        return new TempFileSubscriber();
+    }
+
+    private class TempFileSubscriber implements BodySubscriber<DownloadedFile> {
+
+        private final CompletableFuture<DownloadedFile> result = new CompletableFuture<>();
+        private final MessageDigest digest = Hashing.newSha256();
+
+        private Flow.Subscription subscription;
+        private Path tempFile;
+        private FileChannel channel;
+        private long size;
+
+        @Override
+        public CompletionStage<DownloadedFile> getBody() {
+            return result;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+
+            try {
+                tempFile = Files.createTempFile(tempDir, ".download-", ".tmp");
+                channel = FileChannel.open(tempFile, StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                subscription.cancel();
+                fail(e);
+                return;
+            }
+
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> buffers) {
+            try {
+                for (ByteBuffer buffer : buffers) {
+                    size += buffer.remaining();
+
+                    if (size > maxBytes) {
+                        throw new TooLargeException("Image is larger than " + maxBytes + " bytes");
+                    }
+
+                    digest.update(buffer.duplicate());
+
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                }
+            } catch (IOException e) {
+                subscription.cancel();
+                fail(e);
+                return;
+            }
+
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            fail(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            if (result.isDone()) {
+                return;
+            }
+
+            try {
+                channel.close();
+                result.complete(new DownloadedFile(tempFile, size, Hashing.toHex(digest)));
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private void fail(Throwable throwable) {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+                if (tempFile != null) {
+                    Files.deleteIfExists(tempFile);
+                }
+            } catch (IOException e) {
+                throwable.addSuppressed(e);
+            }
+
+            result.completeExceptionally(throwable);
+        }
+    }
+}
@@ -14,6 +14,18 @@ public class DominoRunner {
     }
 
     public static void runWithDominoClient(Consumer<DominoClient> action, boolean useExistingNotesClientId) {
+        runWithDominoProcess(() -> {
+            try (DominoClient dc = DominoClientBuilder.newDominoClient().asIDUser().build()) {
+                action.accept(dc);
+            }
+        }, useExistingNotesClientId);
+    }
+
+    /**
+     * Initialises the Domino process, runs the action on the current thread and terminates the process. The action
+     * can start worker threads using {@link #runInDominoThread(Consumer)}, they must be finished when it returns.
+     */
+    public static void runWithDominoProcess(Runnable action, boolean useExistingNotesClientId) {
 
         // Set the jnx.skipNotesThread property to true to avoid creating a NotesThread.
         // Otherwise, we are going to spend precious time to find a non-error exception!
@@ -40,9 +52,7 @@ public class DominoRunner {
                 }
             }
 
-            try (DominoClient dc = DominoClientBuilder.newDominoClient().asIDUser().build()) {
-                action.accept(dc);
-            }
+            action.run();
 
         } catch (Throwable t) {
             throw new RuntimeException("Domino Process Failed", t);
@@ -51,4 +61,17 @@ public class DominoRunner {
         }
 
     }
+
+    /**
+     * Runs the action with its own Domino thread context and client. Use this for worker threads while the process
+     * is kept alive by {@link #runWithDominoClient(Consumer, boolean)} or {@link #runWithDominoProcess(Runnable, boolean)}.
+     */
+    public static void runInDominoThread(Consumer<DominoClient> action) {
+        final DominoProcess dp = DominoProcess.get();
+
+        try (DominoProcess.DominoThreadContext ignored = dp.initializeThread();
+             DominoClient dc = DominoClientBuilder.newDominoClient().asIDUser().build()) {
+            action.accept(dc);
+        }
+    }
 }
@@ -0,0 +1,132 @@
+package com.developi.blog;
+
+import static com.developi.blog.InMemoryPostSource.post;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BlogConverterTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void exportsInTwoPasses() throws IOException {
+        // The first post links to the last one, which is loaded after it
+        InMemoryPostSource source = new InMemoryPostSource(true,
+                                                           post("A1", "first.htm", 1000, "<p>See <a href=\"third.htm\">the third post</a>.</p>"),
+                                                           post("A2", "second.htm", 1000, "<p>Second</p>"),
+                                                           post("A3", "third.htm", 1000, "<p>Third</p>"));
+
+        new BlogConverter(InMemoryPostSource.target(dir)).run(source);
+
+        assertEquals(1, source.summaryPasses.get());
+        assertEquals(List.of("first.htm", "second.htm", "third.htm"), source.loaded.stream().sorted().toList());
+
+        String first = Files.readString(dir.resolve("posts/2020-01-first.md"));
+        assertTrue(first.contains("title: \"Title of first.htm\""), first);
+        assertTrue(first.contains("(2020-01-third.md"), first);
+        assertTrue(Files.exists(dir.resolve("posts/2020-01-second.md")));
+        assertTrue(Files.exists(dir.resolve("posts/2020-01-third.md")));
+    }
+
+    @Test
+    void exportsOnlyChangedPostsAgain() throws IOException {
+        InMemoryPostSource source = new InMemoryPostSource(true,
+                                                           post("A1", "first.htm", 1000, "<p>See <a href=\"later.htm\">a later post</a>.</p>"),
+                                                           post("A2", "second.htm", 1000, "<p>Second</p>"));
+
+        new BlogConverter(InMemoryPostSource.target(dir)).run(source);
+        source.loaded.clear();
+
+        new BlogConverter(InMemoryPostSource.target(dir)).run(source);
+        assertEquals(List.of(), source.loaded);
+
+        source.put(post("A2", "second.htm", 2000, "<p>Second, modified</p>"));
+        new BlogConverter(InMemoryPostSource.target(dir)).run(source);
+        assertEquals(List.of("second.htm"), source.loaded);
+    }
+
+    @Test
+    void exportsPostAgainWhenLinkedPostIsCreated() throws IOException {
+        InMemoryPostSource source = new InMemoryPostSource(true,
+                                                           post("A1", "first.htm", 1000, "<p>See <a href=\"later.htm\">a later post</a>.</p>"),
+                                                           post("A2", "second.htm", 1000, "<p>Second</p>"));
+
+        new BlogConverter(InMemoryPostSource.target(dir)).run(source);
+        assertTrue(Files.readString(dir.resolve("posts/2020-01-first.md")).contains("(later.htm)"));
+        source.loaded.clear();
+
+        source.put(post("A3", "later.htm", 1000, "<p>Later</p>"));
+        new BlogConverter(InMemoryPostSource.target(dir)).run(source);
+
+        assertEquals(List.of("first.htm", "later.htm"), source.loaded.stream().sorted().toList());
+        assertTrue(Files.readString(dir.resolve("posts/2020-01-first.md")).contains("(2020-01-later.md"));
+    }
+
+    @Test
+    void skipsUnchangedPostsBeforeLoadingWithoutModificationTimeInSummaries() throws IOException {
+        InMemoryPostSource source = new InMemoryPostSource(false,
+                                                           post("A1", "first.htm", 1000, "<p>First</p>"),
+                                                           post("A2", "second.htm", 1000, "<p>Second</p>"));
+
+        new BlogConverter(InMemoryPostSource.target(dir)).run(source);
+        source.loaded.clear();
+
+        source.put(post("A2", "second.htm", 2000, "<p>Second, modified</p>"));
+        BlogConverter converter = new BlogConverter(InMemoryPostSource.target(dir));
+        converter.run(source);
+
+        assertEquals(List.of("second.htm"), source.loaded);
+        assertEquals(1, converter.getMetrics().get(ExportMetrics.Counter.POSTS_UNCHANGED));
+        assertEquals(1, converter.getMetrics().get(ExportMetrics.Counter.POSTS_EXPORTED));
+    }
+
+    @Test
+    void outputFileNameIsTakenFromExactPageName() throws IOException {
+        // The link index keeps only the first of these, and can't resolve the last one
+        InMemoryPostSource source = new InMemoryPostSource(true,
+                                                           post("A1", "Same.htm", 1000, "<p>Upper</p>"),
+                                                           post("A2", "same.htm", 1000, "<p>Lower</p>"),
+                                                           post("A3", "what?.htm", 1000, "<p>Question</p>"));
+
+        new BlogConverter(InMemoryPostSource.target(dir)).run(source);
+
+        assertTrue(Files.readString(dir.resolve("posts/2020-01-Same.md")).contains("Upper"));
+        assertTrue(Files.readString(dir.resolve("posts/2020-01-same.md")).contains("Lower"));
+        assertTrue(Files.readString(dir.resolve("posts/2020-01-what?.md")).contains("Question"));
+    }
+
+    @Test
+    void outputFileNameHasYearAndMonth() {
+        PostSource.PostSummary summary = new PostSource.PostSummary("A1", "my-post.htm", post("A1", "my-post.htm", 0, "").date(), 0);
+
+        assertEquals("2020-01-my-post.md", BlogConverter.outputFileName(summary));
+    }
+
+    @Test
+    void numericPropertiesAreRangeChecked() {
+        assertEquals(16, BlogConverter.parseNumber("QUEUE_CAPACITY", null, 16, 1, Integer.MAX_VALUE));
+        assertEquals(16, BlogConverter.parseNumber("QUEUE_CAPACITY", " ", 16, 1, Integer.MAX_VALUE));
+        assertEquals(4, BlogConverter.parseNumber("QUEUE_CAPACITY", " 4", 16, 1, Integer.MAX_VALUE));
+        assertEquals(0, BlogConverter.parseNumber("IMG_RETRIES", "0", 3, 0, Integer.MAX_VALUE));
+        assertEquals(8L * 1024 * 1024 * 1024, BlogConverter.parseNumber("IMG_MAX_BYTES", "8589934592", 1024, 1, Long.MAX_VALUE));
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                                                  () -> BlogConverter.parseNumber("PARALLELISM", "0", 4, 1, Integer.MAX_VALUE));
+        assertEquals("Invalid value '0' of environment property PARALLELISM, expected a whole number from 1 to 2147483647", e.getMessage());
+
+        assertThrows(IllegalArgumentException.class, () -> BlogConverter.parseNumber("PARALLELISM", "2147483648", 4, 1, Integer.MAX_VALUE));
+        assertThrows(IllegalArgumentException.class, () -> BlogConverter.parseNumber("IMG_MAX_BYTES", "99999999999999999999", 1024, 1, Long.MAX_VALUE));
+        assertThrows(IllegalArgumentException.class, () -> BlogConverter.parseNumber("IMG_JPEG_QUALITY", "101", 85, 1, 100));
+        assertThrows(IllegalArgumentException.class, () -> BlogConverter.parseNumber("IMG_RETRIES", "-1", 3, 0, Integer.MAX_VALUE));
+        assertThrows(IllegalArgumentException.class, () -> BlogConverter.parseNumber("IMG_RETRIES", "three", 3, 0, Integer.MAX_VALUE));
+    }
+}
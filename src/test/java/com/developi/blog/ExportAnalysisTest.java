@@ -0,0 +1,42 @@
+package com.developi.blog;
+
+import static com.developi.blog.InMemoryPostSource.post;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ExportAnalysisTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void projectedSizeMatchesExport() throws IOException {
+        InMemoryPostSource source = new InMemoryPostSource(true,
+                                                           post("A1", "first.htm", 1000, "<p>See <a href=\"second.htm\">the <u>second</u> post</a>.</p>"),
+                                                           post("A2", "second.htm", 1000, "<h2>Title</h2><br><br><br><p>Grüße</p>"),
+                                                           post("A3", "third.htm", 1000, "<div class=\"well\">Quote</div><b>Bold</b>"));
+
+        ExportTarget target = InMemoryPostSource.target(dir);
+        new BlogConverter(target).run(source);
+        new ExportAnalysis(target).run(source);
+
+        long exported;
+        try (Stream<Path> files = Files.list(target.postsDir())) {
+            exported = files.filter(file -> file.toString().endsWith(".md")).mapToLong(file -> file.toFile().length()).sum();
+        }
+
+        JsonNode report = new ObjectMapper().readTree(target.metricsFile().resolveSibling(ExportAnalysis.FILE_NAME).toFile());
+
+        assertEquals(3, report.get("posts").asInt());
+        assertEquals(exported, report.get("projectedTextBytes").asLong());
+        assertEquals(1, report.get("links").get("resolved").asLong());
+    }
+}
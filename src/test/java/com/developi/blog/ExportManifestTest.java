@@ -0,0 +1,173 @@
+package com.developi.blog;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ExportManifestTest {
+
+    private static final String BASE_URL = "https://www.example.com/blog.nsf/dx/";
+
+    @TempDir
+    Path postsDir;
+
+    private final LinkIndex linkIndex = LinkIndex.of(Map.of("linked.htm", "2020-01-linked.md"), BASE_URL);
+
+    private ExportManifest.Entry entry(String unid, long lastModified, List<String> links) throws IOException {
+        Files.writeString(postsDir.resolve(unid + ".md"), unid);
+
+        return new ExportManifest.Entry(unid, unid + ".htm", lastModified, "hash", unid + ".md", List.of(unid + ".png"), links,
+                                        ExportManifest.linkHash(links, linkIndex));
+    }
+
+    private ExportManifest load() {
+        return ExportManifest.load(postsDir, Shard.ALL);
+    }
+
+    @Test
+    void savedManifestIsLoaded() throws IOException {
+        ExportManifest manifest = load();
+        manifest.put(entry("A1", 1000, List.of("linked.htm")));
+        manifest.save();
+
+        assertFalse(Files.exists(postsDir.resolve(ExportManifest.CHECKPOINT_FILE_NAME)));
+
+        ExportManifest loaded = load();
+        assertEquals(Set.of("A1"), loaded.unids());
+        assertTrue(loaded.isUpToDate("A1", 1000, postsDir, linkIndex));
+        assertTrue(loaded.isImageReferenced("A1.png"));
+    }
+
+    @Test
+    void modifiedOrMissingPostIsNotUpToDate() throws IOException {
+        ExportManifest manifest = load();
+        manifest.put(entry("A1", 1000, List.of()));
+
+        assertFalse(manifest.isUpToDate("A1", 2000, postsDir, linkIndex));
+        assertFalse(manifest.isUpToDate("A2", 1000, postsDir, linkIndex));
+
+        Files.delete(postsDir.resolve("A1.md"));
+        assertFalse(manifest.isUpToDate("A1", 1000, postsDir, linkIndex));
+    }
+
+    @Test
+    void changedLinkTargetsAreNotUpToDate() throws IOException {
+        ExportManifest manifest = load();
+        manifest.put(entry("A1", 1000, List.of("linked.htm", "later.htm")));
+
+        assertTrue(manifest.isUpToDate("A1", 1000, postsDir, linkIndex));
+
+        // Linked post renamed
+        assertFalse(manifest.isUpToDate("A1", 1000, postsDir,
+                                        LinkIndex.of(Map.of("linked.htm", "2021-05-linked.md"), BASE_URL)));
+
+        // Linked post created
+        assertFalse(manifest.isUpToDate("A1", 1000, postsDir,
+                                        LinkIndex.of(Map.of("linked.htm", "2020-01-linked.md", "later.htm", "2022-01-later.md"), BASE_URL)));
+
+        // Linked post deleted
+        assertFalse(manifest.isUpToDate("A1", 1000, postsDir, LinkIndex.of(Map.of(), BASE_URL)));
+    }
+
+    @Test
+    void entryWithoutLinkHashIsNotUpToDate() throws IOException {
+        // Written before link hashes were recorded
+        Files.writeString(postsDir.resolve("A1.md"), "A1");
+        Files.writeString(postsDir.resolve(ExportManifest.FILE_NAME), """
+            {"A1": {"unid": "A1", "pageName": "A1.htm", "lastModified": 1000, "contentHash": "hash", "fileName": "A1.md", "images": []}}
+            """);
+
+        assertFalse(load().isUpToDate("A1", 1000, postsDir, linkIndex));
+    }
+
+    @Test
+    void interruptedRunIsResumedFromCheckpoint() throws IOException {
+        ExportManifest manifest = load();
+        manifest.put(entry("A1", 1000, List.of()));
+        manifest.put(entry("A2", 1000, List.of()));
+
+        // Interrupted while writing the next line
+        Files.writeString(postsDir.resolve(ExportManifest.CHECKPOINT_FILE_NAME), "{\"unid\": \"A3\", \"pageN",
+                          StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        ExportManifest resumed = load();
+        assertEquals(Set.of("A1", "A2"), resumed.unids());
+        assertTrue(resumed.isUpToDate("A2", 1000, postsDir, linkIndex));
+
+        // The cut off line is ended before new entries are appended
+        resumed.put(entry("A3", 1000, List.of()));
+        assertEquals(Set.of("A1", "A2", "A3"), load().unids());
+
+        resumed.save();
+        assertFalse(Files.exists(postsDir.resolve(ExportManifest.CHECKPOINT_FILE_NAME)));
+        assertEquals(Set.of("A1", "A2", "A3"), load().unids());
+    }
+
+    @Test
+    void shardsAreMergedIntoRegularManifest() throws IOException {
+        Shard first = new Shard(1, 3);
+        Shard second = new Shard(2, 3);
+        String a = ShardTest.unidIn(first, 0);
+        String b = ShardTest.unidIn(second, 0);
+        String c = ShardTest.unidIn(new Shard(3, 3), 0);
+        String d = ShardTest.unidIn(second, 1);
+
+        ExportManifest regular = load();
+        regular.put(entry(a, 1000, List.of()));
+        regular.put(entry(b, 1000, List.of()));
+        regular.put(entry(c, 1000, List.of()));
+        regular.save();
+
+        // The first run of a shard starts with its posts from the regular manifest
+        ExportManifest firstPart = ExportManifest.load(postsDir, first);
+        assertEquals(Set.of(a), firstPart.unids());
+        firstPart.put(entry(a, 2000, List.of()));
+        firstPart.save();
+
+        // Interrupted after the post was deleted and another one exported
+        ExportManifest secondPart = ExportManifest.load(postsDir, second);
+        secondPart.remove(b);
+        secondPart.save();
+        secondPart.put(entry(d, 2000, List.of()));
+
+        // The third shard didn't run
+        assertEquals(2, ExportManifest.mergeShards(postsDir));
+
+        ExportManifest merged = load();
+        assertEquals(Set.of(a, c, d), merged.unids());
+        assertEquals(2000, merged.get(a).orElseThrow().lastModified());
+        assertEquals(1000, merged.get(c).orElseThrow().lastModified());
+        assertEquals(2000, merged.get(d).orElseThrow().lastModified());
+    }
+
+    @Test
+    void nothingToMergeWithoutShards() throws IOException {
+        ExportManifest manifest = load();
+        manifest.put(entry("A1", 1000, List.of()));
+        manifest.save();
+
+        assertEquals(0, ExportManifest.mergeShards(postsDir));
+        assertEquals(Set.of("A1"), load().unids());
+    }
+
+    @Test
+    void removedEntryIsGone() throws IOException {
+        ExportManifest manifest = load();
+        manifest.put(entry("A1", 1000, List.of()));
+
+        assertEquals("A1.md", manifest.remove("A1").orElseThrow().fileName());
+        assertTrue(manifest.get("A1").isEmpty());
+        assertFalse(manifest.isImageReferenced("A1.png"));
+    }
+}
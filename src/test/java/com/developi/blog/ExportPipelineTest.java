@@ -0,0 +1,89 @@
+package com.developi.blog;
+
+import static com.developi.blog.InMemoryPostSource.post;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ExportPipelineTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(20);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void errorInConverterCancelsPipeline() {
+        InMemoryPostSource source = source(200);
+        BlogConverter converter = new BlogConverter(InMemoryPostSource.target(dir)) {
+            @Override
+            ExportPipeline.RenderedPost render(BlogPost post) {
+                throw new StackOverflowError();
+            }
+        };
+
+        // Without cancelling, the reader blocks on the full queue forever
+        RuntimeException e = assertTimeoutPreemptively(TIMEOUT, () -> assertThrows(RuntimeException.class, () -> converter.run(source)));
+
+        assertInstanceOf(StackOverflowError.class, e.getCause());
+        assertTrue(source.loaded.size() < 200, "reader stopped early");
+        assertFalse(Files.exists(dir.resolve("posts").resolve(ExportManifest.FILE_NAME)), "no manifest of a partial export");
+    }
+
+    @Test
+    void failingSourceFailsRun() {
+        InMemoryPostSource source = new InMemoryPostSource(true, post("A1", "first.htm", 1000, "<p>First</p>")) {
+            @Override
+            public void forEachPost(Collection<PostSummary> summaries, ChangeFilter filter, Consumer<BlogPost> consumer) {
+                throw new IllegalStateException("Database not found");
+            }
+        };
+
+        RuntimeException e = assertTimeoutPreemptively(TIMEOUT, () -> assertThrows(RuntimeException.class,
+                                                                                     () -> new BlogConverter(InMemoryPostSource.target(dir)).run(source)));
+
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        assertFalse(Files.exists(dir.resolve("posts").resolve(ExportManifest.FILE_NAME)));
+    }
+
+    @Test
+    void failingPostIsSkipped() {
+        InMemoryPostSource source = source(50);
+        BlogConverter converter = new BlogConverter(InMemoryPostSource.target(dir)) {
+            @Override
+            ExportPipeline.RenderedPost render(BlogPost post) {
+                if (post.pageName().equals("post-7.htm")) {
+                    throw new IllegalArgumentException("Broken post");
+                }
+                return super.render(post);
+            }
+        };
+
+        assertTimeoutPreemptively(TIMEOUT, () -> converter.run(source));
+
+        assertEquals(1, converter.getMetrics().get(ExportMetrics.Counter.POSTS_FAILED));
+        assertEquals(49, converter.getMetrics().get(ExportMetrics.Counter.POSTS_EXPORTED));
+        assertTrue(Files.exists(dir.resolve("posts").resolve(ExportManifest.FILE_NAME)));
+    }
+
+    private static InMemoryPostSource source(int count) {
+        InMemoryPostSource source = new InMemoryPostSource(true);
+
+        for (int i = 0; i < count; i++) {
+            source.put(post("A" + i, "post-" + i + ".htm", 1000, "<p>Post " + i + "</p>"));
+        }
+
+        return source;
+    }
+}
@@ -0,0 +1,92 @@
+package com.developi.blog;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+class HtmlRewriterTest {
+
+    private final HtmlRewriter rewriter = new HtmlRewriter(HtmlRewriter.DEFAULT_RULES);
+
+    /**
+     * The cleanups as they were applied before the rewriter, which must give the same result.
+     */
+    private static String replaceAllChain(String content) {
+        content = content.replaceAll("<(/?)u>", "");
+        content = content.replaceAll("<div\\s+class=\"well\">([\\s\\S]*?)</div>", "<blockquote>$1</blockquote>");
+        content = content.replaceAll("<strong>((.?<br />)+)", "$1<strong>");
+        content = content.replaceAll("</h([1-6])><br />", "</h$1>");
+        content = content.replaceAll("(<br />(\\s+)?){3,}", "<br /><br />");
+
+        return content;
+    }
+
+    static Stream<String> samples() {
+        return Stream.of(
+            "",
+            "<p>Nothing to clean up</p>",
+            "<br /><br /><br /><strong><br />Bold</strong>",
+            "text<br /><br /><strong><br /><br />x</strong>",
+            "<strong><u><br /></u>x",
+            "<div class=\"well\">Quoted<br /><br /><br />text</div>",
+            "<h2>Heading</h2><br />Text",
+            "<h3>Heading</h3><u><br /></u><br /><br />Text",
+            "Line<br />\n<br />\n<br />\n<br />Next",
+            "<strong> <br /><br />Bold after space</strong>"
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("samples")
+    void sameResultAsReplaceAllChain(String html) {
+        assertEquals(replaceAllChain(html), rewriter.rewrite(html));
+    }
+
+    @Test
+    void knownResults() {
+        assertEquals("<br /><br /><strong>Bold</strong>", rewriter.rewrite("<br /><br /><br /><strong><br />Bold</strong>"));
+        assertEquals("<br /><strong>x", rewriter.rewrite("<strong><u><br /></u>x"));
+        assertEquals("<blockquote>Quoted</blockquote>", rewriter.rewrite("<div class=\"well\">Quoted</div>"));
+    }
+
+    @Test
+    void sameResultAsReplaceAllChainOnRandomHtml() {
+        // Random sequences of the fragments the rules look for, so the rules interact
+        String[] fragments = {"<br />", "<br />", "<br />", " ", "\n", "x", "<strong>", "</strong>", "<u>", "</u>", "<h2>", "</h2>",
+                              "<div class=\"well\">", "</div>", "<p>", "</p>"};
+        Random random = new Random(42);
+
+        for (int i = 0; i < 20_000; i++) {
+            StringBuilder html = new StringBuilder();
+            int length = random.nextInt(16);
+
+            for (int k = 0; k < length; k++) {
+                html.append(fragments[random.nextInt(fragments.length)]);
+            }
+
+            assertEquals(replaceAllChain(html.toString()), rewriter.rewrite(html), html::toString);
+        }
+    }
+
+    @Test
+    void customRulesRunAfterDefaultRules() {
+        HtmlRewriter custom = new HtmlRewriter(Stream.concat(HtmlRewriter.DEFAULT_RULES.stream(),
+                                                             Stream.of(new HtmlRewriter.Rule("font", "</?font[^>]*>", ""),
+                                                                       new HtmlRewriter.Rule("center", "<center>(.*?)</center>", "<div>$1</div>")))
+                                                     .toList());
+
+        assertEquals("<div>Text</div>", custom.rewrite("<center><font color=\"red\"><u>Text</u></font></center>"));
+    }
+
+    @Test
+    void invalidRulesAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new HtmlRewriter(List.of(new HtmlRewriter.Rule("broken", "(", ""))));
+        assertThrows(IllegalArgumentException.class, () -> new HtmlRewriter(List.of(new HtmlRewriter.Rule("group", "<b>", "$1"))));
+    }
+}
@@ -0,0 +1,113 @@
+package com.developi.blog;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ImageCacheTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void savesAndLoads() throws IOException {
+        Files.writeString(dir.resolve("photo.png"), "photo");
+
+        ImageCache cache = ImageCache.load(dir);
+        ImageCache.Entry entry = new ImageCache.Entry("photo.png?OpenElement", "photo.png", "\"etag\"", "Thu, 02 Jan 2020 03:04:05 GMT", "hash");
+        cache.put(entry);
+        cache.save();
+
+        assertEquals(Optional.of(entry), ImageCache.load(dir).get("photo.png?OpenElement"));
+        assertEquals(List.of(ImageCache.FILE_NAME), fileNames(), "no temporary file left");
+    }
+
+    @Test
+    void replacesPreviousIndex() throws IOException {
+        Files.writeString(dir.resolve("photo.png"), "photo");
+        Files.writeString(dir.resolve("other.png"), "other");
+
+        ImageCache cache = ImageCache.load(dir);
+        cache.put(new ImageCache.Entry("photo.png?OpenElement", "photo.png", null, null, "hash"));
+        cache.save();
+
+        cache.put(new ImageCache.Entry("other.png?OpenElement", "other.png", null, null, "other"));
+        cache.save();
+
+        ImageCache loaded = ImageCache.load(dir);
+        assertTrue(loaded.get("photo.png?OpenElement").isPresent());
+        assertTrue(loaded.get("other.png?OpenElement").isPresent());
+        assertEquals(List.of(ImageCache.FILE_NAME), fileNames());
+    }
+
+    @Test
+    void dropsEntriesOfDeletedFiles() throws IOException {
+        Files.writeString(dir.resolve("photo.png"), "photo");
+
+        ImageCache cache = ImageCache.load(dir);
+        cache.put(new ImageCache.Entry("photo.png?OpenElement", "photo.png", null, null, "hash"));
+        cache.save();
+
+        Files.delete(dir.resolve("photo.png"));
+
+        assertFalse(ImageCache.load(dir).get("photo.png?OpenElement").isPresent());
+    }
+
+    @Test
+    void reusesIdenticalImage() throws IOException {
+        Files.writeString(dir.resolve("photo.png"), "photo");
+
+        ImageCache cache = ImageCache.load(dir);
+        cache.put(new ImageCache.Entry("photo.png?OpenElement", "photo.png", null, null, "hash"));
+
+        assertTrue(cache.reuseIdentical("hash", dir.resolve("copy.png")));
+        assertEquals("photo", Files.readString(dir.resolve("copy.png")));
+        assertFalse(cache.reuseIdentical("unknown", dir.resolve("unknown.png")));
+    }
+
+    @Test
+    void shardsAreMergedIntoRegularIndex() throws IOException {
+        Files.writeString(dir.resolve("photo.png"), "photo");
+        Files.writeString(dir.resolve("first.png"), "first");
+        Files.writeString(dir.resolve("second.png"), "second");
+
+        ImageCache regular = ImageCache.load(dir);
+        regular.put(new ImageCache.Entry("photo.png?OpenElement", "photo.png", "\"1\"", null, "photo"));
+        regular.save();
+
+        // Each shard starts with the regular index
+        ImageCache first = ImageCache.load(dir, new Shard(1, 2));
+        first.put(new ImageCache.Entry("first.png?OpenElement", "first.png", null, null, "first"));
+        first.put(new ImageCache.Entry("photo.png?OpenElement", "photo.png", "\"2\"", null, "photo"));
+        first.save();
+
+        ImageCache second = ImageCache.load(dir, new Shard(2, 2));
+        second.put(new ImageCache.Entry("second.png?OpenElement", "second.png", null, null, "second"));
+        second.save();
+
+        assertEquals(2, ImageCache.mergeShards(dir));
+
+        ImageCache merged = ImageCache.load(dir);
+        assertTrue(merged.get("first.png?OpenElement").isPresent());
+        assertTrue(merged.get("second.png?OpenElement").isPresent());
+        assertEquals("\"2\"", merged.get("photo.png?OpenElement").orElseThrow().etag());
+    }
+
+    private List<String> fileNames() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(path -> path.getFileName().toString())
+                        .filter(name -> name.startsWith("."))
+                        .sorted()
+                        .toList();
+        }
+    }
+}
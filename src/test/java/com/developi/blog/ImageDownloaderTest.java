@@ -0,0 +1,141 @@
+package com.developi.blog;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ImageDownloaderTest {
+
+    private static final byte[] IMAGE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 1, 2, 3};
+
+    @TempDir
+    Path dir;
+
+    private HttpServer server;
+    private String baseUrl;
+
+    // Status codes to answer with, per path, before the image is sent
+    private final Map<String, List<Integer>> errors = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+
+    private final ExportMetrics metrics = new ExportMetrics();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/blog.nsf/dx/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            int request = requests.computeIfAbsent(path, key -> new AtomicInteger()).getAndIncrement();
+            List<Integer> statusCodes = errors.getOrDefault(path, List.of());
+
+            if (request < statusCodes.size()) {
+                exchange.sendResponseHeaders(statusCodes.get(request), -1);
+            } else {
+                exchange.getResponseHeaders().add("Content-Type", "image/png");
+                exchange.sendResponseHeaders(200, IMAGE.length);
+
+                try (OutputStream body = exchange.getResponseBody()) {
+                    body.write(IMAGE);
+                }
+            }
+
+            exchange.close();
+        });
+        server.start();
+
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/blog.nsf/dx/";
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void downloadsImage() throws IOException {
+        ImageDownloader downloader = downloader(2);
+        StringBuilder markdown = new StringBuilder("![Photo](img/" + downloader.request("photo.png", "photo") + ")");
+        List<String> images = new ArrayList<>();
+
+        assertEquals(0, downloader.resolvePlaceholders(markdown, images));
+        assertEquals(0, downloader.awaitAll());
+
+        assertEquals("![Photo](img/photo.png)", markdown.toString());
+        assertEquals(List.of("photo.png"), images);
+        assertArrayEquals(IMAGE, Files.readAllBytes(dir.resolve("photo.png")));
+        assertEquals(1, metrics.get(ExportMetrics.Counter.IMAGES_DOWNLOADED));
+        assertTrue(Files.exists(dir.resolve(ImageCache.FILE_NAME)));
+    }
+
+    @Test
+    void retriesAfterTransientErrors() {
+        errors.put("/blog.nsf/dx/photo.png", List.of(503, 429));
+
+        ImageDownloader downloader = downloader(2);
+        StringBuilder markdown = new StringBuilder("![Photo](img/" + downloader.request("photo.png", "photo") + ")");
+
+        assertEquals(0, downloader.resolvePlaceholders(markdown, new ArrayList<>()));
+        assertEquals(0, downloader.awaitAll());
+
+        assertEquals("![Photo](img/photo.png)", markdown.toString());
+        assertEquals(3, requests.get("/blog.nsf/dx/photo.png").get());
+        assertEquals(2, metrics.get(ExportMetrics.Counter.IMAGES_RETRIED));
+        assertEquals(0, metrics.get(ExportMetrics.Counter.IMAGES_FAILED));
+    }
+
+    @Test
+    void linksOriginalUrlWhenRetriesAreExhausted() {
+        errors.put("/blog.nsf/dx/photo.png", List.of(503, 503, 503));
+
+        ImageDownloader downloader = downloader(1);
+        StringBuilder markdown = new StringBuilder("![Photo](img/" + downloader.request("photo.png", "photo") + ")");
+        List<String> images = new ArrayList<>();
+
+        assertEquals(1, downloader.resolvePlaceholders(markdown, images));
+        assertEquals(1, downloader.awaitAll());
+
+        assertEquals("![Photo](" + baseUrl + "photo.png)", markdown.toString());
+        assertEquals(List.of(), images);
+        assertEquals(2, requests.get("/blog.nsf/dx/photo.png").get());
+        assertEquals(1, metrics.get(ExportMetrics.Counter.IMAGES_FAILED));
+        assertEquals("photo.png", metrics.getFailures().get(0).item());
+    }
+
+    @Test
+    void doesNotRetryPermanentErrors() {
+        errors.put("/blog.nsf/dx/missing.png", List.of(404));
+
+        ImageDownloader downloader = downloader(3);
+        StringBuilder markdown = new StringBuilder("![Missing](img/" + downloader.request("missing.png", "missing") + ") "
+                                                       + "![Photo](img/" + downloader.request("photo.png", "photo") + ")");
+
+        assertEquals(1, downloader.resolvePlaceholders(markdown, new ArrayList<>()));
+        assertEquals(1, downloader.awaitAll());
+
+        assertEquals("![Missing](" + baseUrl + "missing.png) ![Photo](img/photo.png)", markdown.toString());
+        assertEquals(1, requests.get("/blog.nsf/dx/missing.png").get());
+        assertEquals(0, metrics.get(ExportMetrics.Counter.IMAGES_RETRIED));
+    }
+
+    private ImageDownloader downloader(int retries) {
+        return new ImageDownloader(HttpClient.newHttpClient(), baseUrl, dir, ImageCache.load(dir), 2, 1024 * 1024, retries, null, metrics);
+    }
+}
@@ -0,0 +1,78 @@
+package com.developi.blog;
+
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Post source for tests, recording which posts are loaded.
+ */
+class InMemoryPostSource implements PostSource {
+
+    private final Map<String, BlogPost> posts = new LinkedHashMap<>();
+
+    // Like a Domino view without a modification column, summaries don't know the modification time
+    private final boolean lastModifiedInSummaries;
+
+    final AtomicInteger summaryPasses = new AtomicInteger();
+    final List<String> loaded = Collections.synchronizedList(new ArrayList<>());
+
+    InMemoryPostSource(boolean lastModifiedInSummaries, BlogPost... posts) {
+        this.lastModifiedInSummaries = lastModifiedInSummaries;
+
+        for (BlogPost post : posts) {
+            put(post);
+        }
+    }
+
+    static BlogPost post(String unid, String pageName, long lastModified, String html) {
+        return new BlogPost(unid, pageName, "Title of " + pageName, StringUtils.removeEnd(pageName, ".htm"),
+                            OffsetDateTime.of(2020, 1, 2, 3, 4, 5, 0, ZoneOffset.UTC), lastModified, "", List.of(), html);
+    }
+
+    static ExportTarget target(Path dir) {
+        Path postsDir = dir.resolve("posts");
+
+        return new ExportTarget("test", null, null, "https://www.example.com/blog.nsf/dx/", postsDir, dir.resolve("images"), "Jane Doe",
+                                false, postsDir.resolve(".export-metrics.json"), Shard.ALL);
+    }
+
+    void put(BlogPost post) {
+        posts.put(post.unid(), post);
+    }
+
+    void remove(String unid) {
+        posts.remove(unid);
+    }
+
+    @Override
+    public void forEachSummary(Consumer<PostSummary> consumer) {
+        summaryPasses.incrementAndGet();
+
+        posts.values().forEach(post -> consumer.accept(
+            new PostSummary(post.unid(), post.pageName(), post.date(), lastModifiedInSummaries ? post.lastModified() : 0)));
+    }
+
+    @Override
+    public void forEachPost(Collection<PostSummary> summaries, ChangeFilter filter, Consumer<BlogPost> consumer) {
+        for (PostSummary summary : summaries) {
+            BlogPost post = posts.get(summary.unid());
+
+            if (!summary.isLastModifiedKnown() && !filter.needsExport(post.unid(), post.lastModified())) {
+                continue;
+            }
+
+            loaded.add(post.pageName());
+            consumer.accept(post);
+        }
+    }
+}
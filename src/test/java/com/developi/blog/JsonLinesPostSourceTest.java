@@ -0,0 +1,104 @@
+package com.developi.blog;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class JsonLinesPostSourceTest {
+
+    @TempDir
+    Path dir;
+
+    private final ExportMetrics metrics = new ExportMetrics();
+
+    private JsonLinesPostSource source(String... lines) throws IOException {
+        Path file = dir.resolve("posts.jsonl");
+        Files.write(file, List.of(lines));
+
+        return new JsonLinesPostSource(file, metrics);
+    }
+
+    @Test
+    void readsSummariesAndPosts() throws IOException {
+        JsonLinesPostSource source = source(
+            "{\"unid\": \"A1\", \"pageName\": \"first.htm\", \"title\": \"First\", \"date\": \"2020-01-02T03:04:05Z\", "
+                + "\"lastModified\": \"2020-01-03T00:00:00Z\", \"category\": \"Domino\", \"tags\": [\"java\", \"jnx\"], \"html\": \"<p>First</p>\"}",
+            "{\"unid\": \"A2\", \"pageName\": \"second.htm\", \"date\": \"2021-06-01T00:00:00+02:00\", \"html\": \"<p>Second</p>\", \"extra\": {\"a\": [1]}}");
+
+        List<PostSource.PostSummary> summaries = new ArrayList<>();
+        source.forEachSummary(summaries::add);
+
+        assertEquals(List.of("first.htm", "second.htm"), summaries.stream().map(PostSource.PostSummary::pageName).toList());
+        assertEquals(OffsetDateTime.parse("2020-01-03T00:00:00Z").toInstant().toEpochMilli(), summaries.get(0).lastModified());
+        assertEquals(0, summaries.get(1).lastModified());
+
+        List<BlogPost> posts = new ArrayList<>();
+        source.forEachPost(summaries.subList(0, 1), posts::add);
+
+        assertEquals(1, posts.size());
+        BlogPost post = posts.get(0);
+        assertEquals("First", post.title());
+        assertEquals("first", post.slug());
+        assertEquals("Domino", post.category());
+        assertEquals(List.of("java", "jnx"), post.tags());
+        assertEquals("<p>First</p>", post.html());
+    }
+
+    @Test
+    void invalidPostIsReportedAndSkipped() throws IOException {
+        JsonLinesPostSource source = source(
+            "{\"unid\": \"A1\", \"pageName\": \"first.htm\", \"date\": \"2020-01-02T03:04:05Z\", \"html\": \"\"}",
+            "{\"unid\": \"A2\", \"pageName\": \"bad-date.htm\", \"date\": \"02.01.2020\", \"html\": \"\"}",
+            "{\"unid\": \"A3\", \"pageName\": \"bad-modified.htm\", \"date\": \"2020-01-02T03:04:05Z\", \"lastModified\": \"yesterday\"}",
+            "{\"pageName\": \"no-unid.htm\", \"date\": \"2020-01-02T03:04:05Z\"}",
+            "{\"unid\": \"A5\", \"pageName\": \"last.htm\", \"date\": \"2020-01-02T03:04:05Z\", \"html\": \"\"}");
+
+        List<PostSource.PostSummary> summaries = new ArrayList<>();
+        source.forEachSummary(summaries::add);
+
+        assertEquals(List.of("first.htm", "last.htm"), summaries.stream().map(PostSource.PostSummary::pageName).toList());
+        assertEquals(3, metrics.get(ExportMetrics.Counter.POSTS_FAILED));
+
+        List<ExportMetrics.Failure> failures = metrics.getFailures();
+        assertEquals(List.of("bad-date.htm", "bad-modified.htm", "no-unid.htm"), failures.stream().map(ExportMetrics.Failure::item).toList());
+        assertTrue(failures.get(0).message().startsWith("Line 2: invalid date"), failures.get(0).message());
+        assertTrue(failures.get(1).message().startsWith("Line 3: invalid lastModified"), failures.get(1).message());
+
+        // Reported once, not again when the posts are loaded
+        List<BlogPost> posts = new ArrayList<>();
+        source.forEachPost(summaries, posts::add);
+
+        assertEquals(List.of("first.htm", "last.htm"), posts.stream().map(BlogPost::pageName).toList());
+        assertEquals(3, metrics.get(ExportMetrics.Counter.POSTS_FAILED));
+    }
+
+    @Test
+    void postWithoutModificationTimeIsExportedWhenChanged() throws IOException {
+        String first = "{\"unid\": \"A1\", \"pageName\": \"first.htm\", \"date\": \"2020-01-02T03:04:05Z\", \"html\": \"<p>%s</p>\"}";
+        String second = "{\"unid\": \"A2\", \"pageName\": \"second.htm\", \"date\": \"2020-01-02T03:04:05Z\", \"html\": \"<p>Second</p>\"}";
+
+        new BlogConverter(InMemoryPostSource.target(dir)).run(source(first.formatted("Original"), second));
+
+        Path firstFile = dir.resolve("posts/2020-01-first.md");
+        Path secondFile = dir.resolve("posts/2020-01-second.md");
+        FileTime written = FileTime.fromMillis(1_000_000);
+        Files.setLastModifiedTime(secondFile, written);
+
+        new BlogConverter(InMemoryPostSource.target(dir)).run(source(first.formatted("Changed"), second));
+
+        String content = Files.readString(firstFile);
+        assertTrue(content.contains("Changed"), content);
+
+        // Converted again, but the unchanged output is not rewritten
+        assertEquals(written, Files.getLastModifiedTime(secondFile));
+    }
+}
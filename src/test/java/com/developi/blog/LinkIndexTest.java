@@ -0,0 +1,95 @@
+package com.developi.blog;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class LinkIndexTest {
+
+    private static final String BASE_URL = "https://www.example.com/blog.nsf/dx/";
+    private static final String FILE_NAME = "2020-01-my-post.md";
+
+    private final LinkIndex linkIndex = LinkIndex.of(Map.of("my-post.htm", FILE_NAME, "Other-Post.htm", "2021-02-other-post.md"), BASE_URL);
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "my-post.htm",
+        "My-Post.HTM",
+        "./my-post.htm",
+        "my-post.htm?OpenDocument",
+        "my-post.htm#comments",
+        "dx/my-post.htm",
+        "../dx/my-post.htm",
+        "/blog.nsf/dx/my-post.htm",
+        "/BLOG.NSF/my-post.htm",
+        "https://www.example.com/blog.nsf/dx/my-post.htm",
+        "http://WWW.EXAMPLE.COM/blog.nsf/dx/my-post.htm?OpenDocument",
+        "https://www.example.com/blog.nsf/my-post.htm",
+        "//www.example.com/blog.nsf/dx/my-post.htm"
+    })
+    void resolvesLinksToThisBlog(String url) {
+        assertEquals(FILE_NAME, linkIndex.get(url));
+        assertTrue(linkIndex.isBlogLink(url));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "https://evil.example.org/dx/my-post.htm",
+        "https://www.example.com.evil.org/blog.nsf/dx/my-post.htm",
+        "https://www.example.com:8443/blog.nsf/dx/my-post.htm",
+        "https://www.example.com/other-team.nsf/dx/my-post.htm",
+        "https://www.example.com/dx/my-post.htm",
+        "/other-team.nsf/dx/my-post.htm",
+        "../other.nsf/dx/My-Post.htm?OpenDocument",
+        "../../blog.nsf/dx/my-post.htm",
+        "other.nsf/dx/my-post.htm",
+        "mailto:someone@example.com",
+        "#comments",
+        ""
+    })
+    void doesNotResolveOtherHostsOrDatabases(String url) {
+        assertNull(linkIndex.get(url));
+    }
+
+    @Test
+    void unknownPostsOfThisBlogAreBlogLinks() {
+        assertNull(linkIndex.get("missing.htm"));
+        assertTrue(linkIndex.isBlogLink("missing.htm"));
+        assertTrue(linkIndex.isBlogLink("dx/missing"));
+        assertTrue(linkIndex.isBlogLink("https://www.example.com/blog.nsf/dx/missing"));
+
+        assertFalse(linkIndex.isBlogLink("missing"));
+        assertFalse(linkIndex.isBlogLink("https://www.example.org/"));
+        assertFalse(linkIndex.isBlogLink("https://www.example.com/other-team.nsf/dx/missing.htm"));
+        assertFalse(linkIndex.isBlogLink(null));
+    }
+
+    @Test
+    void pageNamesAreCaseInsensitive() {
+        assertEquals("2021-02-other-post.md", linkIndex.get("other-post.htm"));
+        assertEquals(2, linkIndex.size());
+    }
+
+    @Test
+    void withoutBaseUrlOnlyRelativeLinksResolve() {
+        LinkIndex relative = LinkIndex.of(Map.of("my-post.htm", FILE_NAME), "");
+
+        assertEquals(FILE_NAME, relative.get("dx/my-post.htm"));
+        assertNull(relative.get("https://www.example.com/blog.nsf/dx/my-post.htm"));
+        assertNull(relative.get("/blog.nsf/dx/my-post.htm"));
+    }
+
+    @Test
+    void baseUrlWithoutDxPath() {
+        LinkIndex index = LinkIndex.of(Map.of("my-post.htm", FILE_NAME), "https://www.example.com/blogs/team-a.nsf/");
+
+        assertEquals(FILE_NAME, index.get("https://www.example.com/blogs/team-a.nsf/dx/my-post.htm"));
+        assertNull(index.get("https://www.example.com/blogs/team-b.nsf/dx/my-post.htm"));
+    }
+}
@@ -0,0 +1,174 @@
+package com.developi.blog;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.hcl.domino.data.Attachment;
+import com.hcl.domino.data.Document;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class NoteImageExtractorTest {
+
+    private static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 0, 0, 0, 13, 1, 2};
+    private static final byte[] JPEG = {(byte) 0xff, (byte) 0xd8, (byte) 0xff, (byte) 0xe0, 0, 16, 'J', 'F', 'I', 'F'};
+    private static final byte[] GIF = "GIF89a\u0001\u0000\u0001\u0000".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] WEBP = "RIFF$\u0000\u0000\u0000WEBPVP8 ".getBytes(StandardCharsets.ISO_8859_1);
+
+    private static final String HTML = "<img src=\"my-post.htm/content/M1?OpenElement\"><img src=\"my-post.htm/content/M2?OpenElement\">";
+
+    @TempDir
+    Path dir;
+
+    private final ExportMetrics metrics = new ExportMetrics();
+
+    @Test
+    void elementName() {
+        assertEquals("M3", NoteImageExtractor.elementName("my-post.htm/content/M3?OpenElement", "my-post.htm"));
+        assertEquals("M12", NoteImageExtractor.elementName("/blog.nsf/dx/My-Post.htm/content/m12?openelement", "my-post.htm"));
+        assertNull(NoteImageExtractor.elementName("other-post.htm/content/M3?OpenElement", "my-post.htm"));
+        assertNull(NoteImageExtractor.elementName("my-post.htm/content/image.png?OpenElement", "my-post.htm"));
+        assertNull(NoteImageExtractor.elementName("my-post.htm/content/M3", "my-post.htm"));
+    }
+
+    @Test
+    void sniffsImageFormats() {
+        assertEquals("image/png", sniff(PNG));
+        assertEquals("image/jpeg", sniff(JPEG));
+        assertEquals("image/gif", sniff(GIF));
+        assertEquals("image/webp", sniff(WEBP));
+        assertNull(sniff("%PDF-1.7".getBytes(StandardCharsets.US_ASCII)));
+        assertNull(sniff(new byte[] {(byte) 0x89, 'P', 'N'}));
+        assertNull(sniff(new byte[0]));
+    }
+
+    @Test
+    void mapsElementsToAttachmentsByName() throws IOException {
+        Map<String, byte[]> attachments = new LinkedHashMap<>();
+        attachments.put("M2.gif", GIF);
+        attachments.put("M1.png", PNG);
+
+        Map<String, EmbeddedImage> images = extractor().extract(document(attachments), HTML);
+
+        assertEquals(List.of("M1", "M2"), List.copyOf(images.keySet()));
+        assertEquals("image/png", images.get("M1").mimeType());
+        assertEquals("image/gif", images.get("M2").mimeType());
+        assertArrayEquals(PNG, Files.readAllBytes(images.get("M1").tempFile()));
+        assertEquals(PNG.length, images.get("M1").size());
+        assertEquals(Hashing.sha256Hex(PNG), images.get("M1").sha256());
+        assertEquals(0, metrics.get(ExportMetrics.Counter.IMAGES_NOT_IN_NOTE));
+    }
+
+    @Test
+    void doesNotGuessAttachmentByPosition() throws IOException {
+        Map<String, byte[]> attachments = new LinkedHashMap<>();
+        attachments.put("photo.png", PNG);
+        attachments.put("M2.png", PNG);
+
+        Map<String, EmbeddedImage> images = extractor().extract(document(attachments), HTML);
+
+        assertEquals(List.of("M2"), List.copyOf(images.keySet()));
+        assertEquals(1, metrics.get(ExportMetrics.Counter.IMAGES_NOT_IN_NOTE));
+    }
+
+    @Test
+    void inlineImagesOfTypicalNoteAreLeftToDownload() throws IOException {
+        // Inline images are stored in the rich text, attachments keep the names they were uploaded with
+        String html = "<p>Intro</p><img src=\"/blog.nsf/dx/my-post.htm/content/M1?OpenElement\" width=\"600\">"
+            + "<p><a href=\"/blog.nsf/dx/my-post.htm/$FILE/slides.pdf\">Slides</a></p>"
+            + "<img src=\"my-post.htm/content/M2?OpenElement\"><img src=\"my-post.htm/content/M3?OpenElement\">";
+
+        Map<String, byte[]> attachments = new LinkedHashMap<>();
+        attachments.put("image001.png", PNG);
+        attachments.put("ATTGS4E9.jpg", JPEG);
+        attachments.put("slides.pdf", "%PDF-1.7".getBytes(StandardCharsets.US_ASCII));
+
+        assertEquals(Map.of(), extractor().extract(document(attachments), html));
+        assertEquals(Map.of(), extractor().extract(document(Map.of()), html));
+
+        assertEquals(6, metrics.get(ExportMetrics.Counter.IMAGES_NOT_IN_NOTE));
+
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(0, files.count(), "nothing is copied");
+        }
+    }
+
+    @Test
+    void detectsTypeFromContent() throws IOException {
+        // Wrong extension and no extension at all
+        Map<String, byte[]> attachments = new LinkedHashMap<>();
+        attachments.put("M1.png", JPEG);
+        attachments.put("M2", WEBP);
+
+        Map<String, EmbeddedImage> images = extractor().extract(document(attachments), HTML);
+
+        assertEquals("image/jpeg", images.get("M1").mimeType());
+        assertEquals("image/webp", images.get("M2").mimeType());
+    }
+
+    @Test
+    void leavesOtherAttachmentsToDownload() throws IOException {
+        Map<String, byte[]> attachments = new LinkedHashMap<>();
+        attachments.put("M1.pdf", "%PDF-1.7".getBytes(StandardCharsets.US_ASCII));
+        attachments.put("M2.png", "not an image".getBytes(StandardCharsets.US_ASCII));
+
+        Map<String, EmbeddedImage> images = extractor().extract(document(attachments), HTML);
+
+        // Unknown content falls back to the name
+        assertEquals(List.of("M2"), List.copyOf(images.keySet()));
+        assertEquals("image/png", images.get("M2").mimeType());
+
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(1, files.count(), "temporary file of the PDF is deleted");
+        }
+    }
+
+    private NoteImageExtractor extractor() {
+        return new NoteImageExtractor(dir, 1024 * 1024, metrics);
+    }
+
+    private static String sniff(byte[] content) {
+        return NoteImageExtractor.sniffMimeType(content, content.length);
+    }
+
+    private static Document document(Map<String, byte[]> attachments) {
+        return proxy(Document.class, (method, args) -> switch (method) {
+            case "getUNID" -> "0123456789ABCDEF0123456789ABCDEF";
+            case "getAttachmentNames" -> List.copyOf(attachments.keySet());
+            case "getAttachment" -> Optional.ofNullable(attachments.get((String) args[0]))
+                                            .map(content -> attachment((String) args[0], content));
+            default -> throw new UnsupportedOperationException(method);
+        });
+    }
+
+    private static Attachment attachment(String name, byte[] content) {
+        return proxy(Attachment.class, (method, args) -> switch (method) {
+            case "getFileName" -> name;
+            case "getFileSize" -> (long) content.length;
+            case "getInputStream" -> new ByteArrayInputStream(content);
+            default -> throw new UnsupportedOperationException(method);
+        });
+    }
+
+    private interface Handler {
+
+        Object invoke(String method, Object[] args);
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+                                                (proxy, method, args) -> handler.invoke(method.getName(), args)));
+    }
+}
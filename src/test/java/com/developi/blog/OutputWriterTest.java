@@ -0,0 +1,38 @@
+package com.developi.blog;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OutputWriterTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void writesAndSyncsFiles() throws IOException {
+        OutputWriter writer = new OutputWriter();
+        Path first = dir.resolve("first.md");
+        Path second = dir.resolve("second.md");
+
+        writer.write(first, "Hello ", new StringBuilder("wörld"));
+        writer.write(second, "old");
+        writer.write(second, "new");
+
+        assertEquals(2, writer.sync());
+        assertEquals(0, writer.sync(), "synced files are forgotten");
+
+        // Syncing doesn't change the content
+        assertEquals("Hello wörld", Files.readString(first));
+        assertEquals("new", Files.readString(second));
+
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(2, files.count(), "no temporary files left");
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.developi.blog;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class ShardTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void parse() {
+        assertEquals(new Shard(2, 4), Shard.parse("2/4"));
+        assertEquals(new Shard(1, 1), Shard.parse(" 1/1 "));
+        assertEquals(Shard.ALL, Shard.parse(null));
+        assertEquals(Shard.ALL, Shard.parse(""));
+        assertEquals("2/4", Shard.parse("2/4").toString());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"0/4", "5/4", "1/0", "2", "2/4/8", "a/b", "-1/4"})
+    void rejectsInvalidShards(String value) {
+        assertThrows(IllegalArgumentException.class, () -> Shard.parse(value));
+    }
+
+    @Test
+    void fromArguments() {
+        assertEquals(new Shard(2, 4), Shard.fromArguments(new String[] {"--shard", "2/4"}));
+        assertEquals(new Shard(3, 4), Shard.fromArguments(new String[] {"other", "--shard=3/4"}));
+        assertThrows(IllegalArgumentException.class, () -> Shard.fromArguments(new String[] {"--shard"}));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 3, 7})
+    void partitionContainsEveryPostOnce(int count) {
+        List<String> unids = unids(2000);
+        int[] sizes = new int[count];
+
+        for (String unid : unids) {
+            int found = 0;
+
+            for (int index = 1; index <= count; index++) {
+                if (new Shard(index, count).contains(unid)) {
+                    found++;
+                    sizes[index - 1]++;
+                }
+            }
+
+            assertEquals(1, found, unid);
+        }
+
+        // Roughly even, each shard gets at least half of its share
+        for (int size : sizes) {
+            assertTrue(size > unids.size() / count / 2, "Shard sizes " + Arrays.toString(sizes));
+        }
+    }
+
+    @Test
+    void partitionIgnoresCase() {
+        for (String unid : unids(100)) {
+            assertEquals(Shard.indexOf(unid, 4), Shard.indexOf(unid.toLowerCase(Locale.ROOT), 4));
+        }
+    }
+
+    @Test
+    void allContainsEveryPost() {
+        assertTrue(unids(100).stream().allMatch(Shard.ALL::contains));
+    }
+
+    @Test
+    void fileName() {
+        assertEquals(".export-manifest.shard-2-of-4.json", new Shard(2, 4).fileName(".export-manifest.json"));
+        assertEquals("manifest.shard-2-of-4", new Shard(2, 4).fileName("manifest"));
+        assertEquals(".export-manifest.json", Shard.ALL.fileName(".export-manifest.json"));
+    }
+
+    @Test
+    void findFiles() throws IOException {
+        for (Shard shard : List.of(new Shard(2, 3), new Shard(1, 3))) {
+            Files.writeString(dir.resolve(shard.fileName(ExportManifest.FILE_NAME)), "{}");
+        }
+        Files.writeString(dir.resolve(ExportManifest.FILE_NAME), "{}");
+        Files.writeString(dir.resolve(new Shard(1, 3).fileName(ExportManifest.CHECKPOINT_FILE_NAME)), "");
+        Files.writeString(dir.resolve(".export-manifest.shard-x-of-3.json"), "{}");
+
+        Map<Shard, Path> files = Shard.findFiles(dir, ExportManifest.FILE_NAME);
+
+        assertEquals(List.of(new Shard(1, 3), new Shard(2, 3)), List.copyOf(files.keySet()));
+        assertEquals(dir.resolve(".export-manifest.shard-1-of-3.json"), files.get(new Shard(1, 3)));
+        assertEquals(Map.of(), Shard.findFiles(dir.resolve("missing"), ExportManifest.FILE_NAME));
+    }
+
+    @Test
+    void findFilesRejectsDifferentShardCounts() throws IOException {
+        Files.writeString(dir.resolve(new Shard(1, 2).fileName(ExportManifest.FILE_NAME)), "{}");
+        Files.writeString(dir.resolve(new Shard(1, 3).fileName(ExportManifest.FILE_NAME)), "{}");
+
+        assertThrows(IllegalStateException.class, () -> Shard.findFiles(dir, ExportManifest.FILE_NAME));
+    }
+
+    @Test
+    void imageOptimizerShardsAreMerged() throws IOException {
+        String regular = index("\"h1\": {\"fileName\": \"a-800w.png\", \"variants\": []}");
+        Files.writeString(dir.resolve(ImageOptimizer.FILE_NAME), regular);
+
+        // The first shard optimised h1 again, the second one still has the copy of the regular index
+        Files.writeString(dir.resolve(new Shard(1, 2).fileName(ImageOptimizer.FILE_NAME)),
+                          index("\"h1\": {\"fileName\": \"a-800w.png\", \"variants\": [\"a-400w.png\"]}, "
+                                    + "\"h2\": {\"fileName\": null, \"variants\": []}"));
+        Files.writeString(dir.resolve(new Shard(2, 2).fileName(ImageOptimizer.FILE_NAME)),
+                          index("\"h1\": {\"fileName\": \"a-800w.png\", \"variants\": []}, "
+                                    + "\"h3\": {\"fileName\": \"c-800w.jpg\", \"variants\": []}"));
+
+        assertEquals(2, ImageOptimizer.mergeShards(dir));
+
+        JsonNode entries = new ObjectMapper().readTree(dir.resolve(ImageOptimizer.FILE_NAME).toFile()).get("entries");
+        assertEquals(List.of("h1", "h2", "h3"), entries.properties().stream().map(Map.Entry::getKey).toList());
+        assertEquals("a-400w.png", entries.get("h1").get("variants").get(0).asText());
+    }
+
+    private static String index(String entries) {
+        return "{\"settings\": \"maxWidth=800\", \"entries\": {" + entries + "}}";
+    }
+
+    /**
+     * Random UNIDs (32 hex digits), the same in every run.
+     */
+    static List<String> unids(int count) {
+        Random random = new Random(42);
+        List<String> unids = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[16];
+            random.nextBytes(bytes);
+            unids.add(HexFormat.of().withUpperCase().formatHex(bytes));
+        }
+
+        return unids;
+    }
+
+    /**
+     * @return a UNID of the given shard
+     */
+    static String unidIn(Shard shard, int skip) {
+        return unids(1000).stream().filter(shard::contains).skip(skip).findFirst().orElseThrow();
+    }
+}